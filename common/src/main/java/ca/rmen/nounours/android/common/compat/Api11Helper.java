@@ -0,0 +1,47 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.rmen.nounours.android.common.compat;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+@TargetApi(11)
+class Api11Helper {
+    private Api11Helper() {
+        // prevent instantiation
+    }
+
+    /**
+     * Decode into mutable bitmaps, so that they can be reused later with inBitmap.
+     */
+    static void setBitmapFactoryOptions(BitmapFactory.Options options) {
+        options.inMutable = true;
+        // Purgeable bitmaps can't be reused.
+        //noinspection deprecation
+        options.inPurgeable = false;
+        //noinspection deprecation
+        options.inInputShareable = false;
+    }
+
+    static void setInBitmap(BitmapFactory.Options options, Bitmap bitmap) {
+        options.inBitmap = bitmap;
+    }
+}
@@ -24,13 +24,39 @@ import android.graphics.BitmapFactory;
 
 public class BitmapCompat {
 
-    public static BitmapFactory.Options createBitmapFactoryOptions(int sampleSize) {
+    public static BitmapFactory.Options createBitmapFactoryOptions(Bitmap.Config config) {
         BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inSampleSize = sampleSize;
-        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        options.inPreferredConfig = config;
         if (ApiHelper.getAPILevel() >= 4) {
             Api4Helper.setBitmapFactoryOptions(options);
         }
+        if (ApiHelper.getAPILevel() >= 11) {
+            Api11Helper.setBitmapFactoryOptions(options);
+        }
         return options;
     }
+
+    /**
+     * Decode into the given bitmap, if the device supports it.
+     *
+     * @param bitmap a mutable bitmap, or null to decode into a new bitmap.
+     * @return true if the bitmap will be reused.
+     */
+    public static boolean setInBitmap(BitmapFactory.Options options, Bitmap bitmap) {
+        if (ApiHelper.getAPILevel() >= 11) {
+            Api11Helper.setInBitmap(options, bitmap);
+            return bitmap != null;
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of bytes used to store the pixels of the given bitmap.
+     */
+    public static int getByteCount(Bitmap bitmap) {
+        if (ApiHelper.getAPILevel() >= 12) {
+            return Api12Helper.getByteCount(bitmap);
+        }
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
 }
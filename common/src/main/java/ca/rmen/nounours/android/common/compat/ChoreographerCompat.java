@@ -0,0 +1,64 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.rmen.nounours.android.common.compat;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * Runs a task at the next display frame, on the thread of a given Handler.
+ * <p/>
+ * On API 16 and later, the task is run when the Choreographer of that thread signals the next
+ * vsync.  On older devices, it is run at the next multiple of a fixed frame interval.
+ */
+public class ChoreographerCompat {
+    private static final long FALLBACK_FRAME_INTERVAL_MS = 16;
+
+    private final Handler mHandler;
+    private final Runnable mFrameTask;
+    private final Object mFrameCallback;
+
+    /**
+     * @param handler   the thread on which the task will be run. This thread must have a Looper.
+     * @param frameTask the task to run at each requested frame.
+     */
+    public ChoreographerCompat(Handler handler, Runnable frameTask) {
+        mHandler = handler;
+        mFrameTask = frameTask;
+        if (ApiHelper.getAPILevel() >= 16) {
+            mFrameCallback = Api16Helper.createFrameCallback(frameTask);
+        } else {
+            mFrameCallback = null;
+        }
+    }
+
+    /**
+     * Run the task once, at the next frame.  Must be called from the thread of the handler.
+     */
+    public void postFrame() {
+        if (mFrameCallback != null) {
+            Api16Helper.postFrameCallback(mFrameCallback);
+        } else {
+            long now = SystemClock.uptimeMillis();
+            long nextFrame = (now / FALLBACK_FRAME_INTERVAL_MS + 1) * FALLBACK_FRAME_INTERVAL_MS;
+            mHandler.postAtTime(mFrameTask, nextFrame);
+        }
+    }
+}
@@ -22,6 +22,8 @@ package ca.rmen.nounours.android.common.nounours;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.os.Handler;
 import android.util.Log;
 import android.view.SurfaceHolder;
@@ -39,6 +41,7 @@ import ca.rmen.nounours.android.common.nounours.cache.ImageCache;
 import ca.rmen.nounours.android.common.nounours.cache.NounoursResourceCache;
 import ca.rmen.nounours.android.common.settings.NounoursSettings;
 import ca.rmen.nounours.android.common.util.ThemeUtil;
+import ca.rmen.nounours.common.BuildConfig;
 import ca.rmen.nounours.common.R;
 import ca.rmen.nounours.data.Image;
 import ca.rmen.nounours.data.Theme;
@@ -54,6 +57,16 @@ public class AndroidNounours extends Nounours {
 
     private static final String TAG = Constants.TAG + AndroidNounours.class.getSimpleName();
 
+    /**
+     * Notified of each image displayed while the nounours is being recorded.
+     */
+    public interface RecordingListener {
+        /**
+         * Called on the thread which displays the image.  Must return quickly.
+         */
+        void onImageRecorded(Image image);
+    }
+
     private final String mTag;
     private final Context mContext;
     private final Handler mUIHandler;
@@ -64,7 +77,17 @@ public class AndroidNounours extends Nounours {
     private int mViewHeight;
     private final NounoursResourceCache mNounoursResourceCache;
     private final AtomicBoolean mOkToDraw = new AtomicBoolean(false);
+    // Held while drawing, so the surface isn't destroyed in the middle of a frame.
+    private final Object mSurfaceLock = new Object();
+    private final RenderThread mRenderThread;
+    // The image on the surface, to redraw only what changed.  Only accessed while drawing.
+    private Image mLastDrawnImage;
+    private final Rect mDirtyRect = new Rect();
+    private volatile RecordingListener mRecordingListener;
+    // Set when the whole surface must be redrawn: new surface, new settings...
+    private volatile boolean mIsFullRedrawNeeded = true;
     private final NounoursRenderer mRenderer;
+    private final AnimationHandler mAnimationHandler;
 
     /**
      * Open the CSV data files and call the superclass
@@ -93,16 +116,18 @@ public class AndroidNounours extends Nounours {
         mListener = listener;
         mNounoursResourceCache = nounoursResourceCache;
         mRenderer = renderer;
+        mRenderThread = new RenderThread(mTag, mImageDrawer);
+        mNounoursResourceCache.setImageReleaseListener(mImageReleaseListener);
         StreamLoader streamLoader = new AssetStreamLoader(context);
 
         String themeId = mSettings.getThemeId();
-        AnimationHandler animationHandler = new AnimationHandler(this);
+        mAnimationHandler = new AnimationHandler(this);
         final InputStream propertiesFile = context.getResources().openRawResource(R.raw.nounours);
         final InputStream themesFile = context.getResources().openRawResource(R.raw.themes);
         mSurfaceHolder.addCallback(mSurfaceHolderCallback);
 
         try {
-            init(streamLoader, animationHandler, soundHandler, vibrateHandler, propertiesFile,
+            init(streamLoader, mAnimationHandler, soundHandler, vibrateHandler, propertiesFile,
                     themesFile, themeId);
             setEnableVibrate(mSettings.isSoundEnabled());
             setEnableSound(mSettings.isSoundEnabled());
@@ -131,6 +156,7 @@ public class AndroidNounours extends Nounours {
         CharSequence themeLabel = ThemeUtil.getThemeLabel(mContext, theme);
 
         // MEMORY
+        mIsFullRedrawNeeded = true;
         mNounoursResourceCache.freeImages();
         mNounoursResourceCache.freeSounds();
 
@@ -148,34 +174,106 @@ public class AndroidNounours extends Nounours {
                 });
             }
         };
-        mListener.onThemeLoadStart(theme.getImages().size(), mContext.getString(R.string.loading, themeLabel));
+        mListener.onThemeLoadStart(NounoursResourceCache.getInitialImageCount(theme), mContext.getString(R.string.loading, themeLabel));
         themeLoader.start();
     }
 
     /**
-     * Display a picture on the screen.
+     * Display a picture on the screen.  The picture is drawn at the next display frame, on the
+     * render thread, unless another picture is displayed before that.
      *
      * @see ca.rmen.nounours.Nounours#displayImage(ca.rmen.nounours.data.Image)
      */
     @Override
     protected void displayImage(final Image image) {
-        Log.v(TAG + mTag, "displayImage " + image);
+        // This is called for every frame: don't build the log message in release builds.
+        if (BuildConfig.DEBUG) Log.v(TAG + mTag, "displayImage " + image);
         if (image == null) return;
+        RecordingListener recordingListener = mRecordingListener;
+        if (recordingListener != null && getNounoursRecorder().isRecording()) {
+            recordingListener.onImageRecorded(image);
+        }
         if (!mOkToDraw.get()) return;
-        final Bitmap bitmap = mNounoursResourceCache.getDrawableImage(mContext, image);
-        if (bitmap == null) return;
+        mRenderThread.requestRender(image);
+    }
 
-        Canvas c = mSurfaceHolder.lockCanvas();
-        if (c != null) {
-            mRenderer.render(mSettings, bitmap, c, mViewWidth, mViewHeight);
-            mSurfaceHolder.unlockCanvasAndPost(c);
-        }
+    /**
+     * @param listener notified of the images displayed while recording, or null.
+     */
+    public void setRecordingListener(RecordingListener listener) {
+        mRecordingListener = listener;
     }
 
+    private final RenderThread.ImageDrawer mImageDrawer = new RenderThread.ImageDrawer() {
+        @Override
+        public void drawImage(Image image) {
+            final Bitmap bitmap = mNounoursResourceCache.getDrawableImage(mContext, image);
+            if (bitmap == null) return;
+
+            synchronized (mSurfaceLock) {
+                if (!mOkToDraw.get()) return;
+                Rect dirtyRect = getDirtyRect(image, bitmap);
+                if (dirtyRect != null && dirtyRect.isEmpty()) {
+                    // Nothing visible changed.
+                    mLastDrawnImage = image;
+                    return;
+                }
+                // The renderer still draws the whole frame, but the canvas is clipped to the dirty rect.
+                Canvas c = dirtyRect == null ? mSurfaceHolder.lockCanvas() : mSurfaceHolder.lockCanvas(dirtyRect);
+                if (c != null) {
+                    mRenderer.render(mSettings, bitmap, c, mViewWidth, mViewHeight);
+                    mSurfaceHolder.unlockCanvasAndPost(c);
+                    mLastDrawnImage = image;
+                    mIsFullRedrawNeeded = false;
+                }
+            }
+        }
+
+        /**
+         * @return the part of the surface to redraw to go from the image currently on the surface
+         * to the given one, or null to redraw the whole surface.
+         */
+        private Rect getDirtyRect(Image image, Bitmap bitmap) {
+            if (mIsFullRedrawNeeded || mLastDrawnImage == null) return null;
+            RectF changedArea = mNounoursResourceCache.getChangedArea(mLastDrawnImage, image);
+            if (changedArea == null) return null;
+            if (!mRenderer.getDirtyRect(bitmap, changedArea, mViewWidth, mViewHeight, mDirtyRect)) return null;
+            return mDirtyRect;
+        }
+    };
+
+    /**
+     * The frames of the released bitmaps are dropped, so they don't hold on to them.  The evicted
+     * bitmaps are only drawn on the render thread: once it has drawn the current image, they can
+     * be reused.
+     */
+    private final ImageCache.ImageReleaseListener mImageReleaseListener = new ImageCache.ImageReleaseListener() {
+        @Override
+        public void onImageReleased(final Bitmap bitmap, final boolean canBeReused) {
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    mRenderer.removeFrame(bitmap);
+                    if (canBeReused) mNounoursResourceCache.onImageNoLongerDrawn(bitmap);
+                }
+            };
+            // If the render thread has quit, nothing draws the bitmap anymore.
+            if (!mRenderThread.post(task)) task.run();
+        }
+    };
+
     public void redraw() {
         displayImage(getCurrentImage());
     }
 
+    /**
+     * @return the timing statistics of the last animation which ended, or null if no animation
+     * ended yet.
+     */
+    public AnimationStats getLastAnimationStats() {
+        return mAnimationHandler.getLastAnimationStats();
+    }
+
     /**
      * Trace.
      */
@@ -206,6 +304,8 @@ public class AndroidNounours extends Nounours {
         Log.v(TAG + mTag, "destroy");
         mNounoursResourceCache.freeImages();
         mNounoursResourceCache.freeSounds();
+        mRenderThread.quit();
+        mRenderer.invalidate();
     }
 
     @Override
@@ -231,6 +331,8 @@ public class AndroidNounours extends Nounours {
         setEnableSound(mSettings.isSoundEnabled());
         setEnableVibrate(mSettings.isSoundEnabled());
         setIdleTimeout(mSettings.getIdleTimeout());
+        mIsFullRedrawNeeded = true;
+        mRenderer.invalidate();
         reloadThemeFromPreference();
     }
 
@@ -255,21 +357,30 @@ public class AndroidNounours extends Nounours {
         public void surfaceCreated(SurfaceHolder surfaceHolder) {
             Log.v(TAG + mTag, "surfaceCreated");
             mOkToDraw.set(true);
+            mIsFullRedrawNeeded = true;
             redraw();
         }
 
         @Override
         public void surfaceChanged(SurfaceHolder surfaceHolder, int format, int width, int height) {
             Log.v(TAG + mTag, "surfaceChanged");
-            mViewWidth = width;
-            mViewHeight = height;
+            synchronized (mSurfaceLock) {
+                mViewWidth = width;
+                mViewHeight = height;
+            }
+            mIsFullRedrawNeeded = true;
+            mNounoursResourceCache.setSurfaceSize(width, height);
+            mRenderer.invalidate();
             redraw();
         }
 
         @Override
         public void surfaceDestroyed(SurfaceHolder surfaceHolder) {
             Log.v(TAG + mTag, "surfaceDestroyed");
-            mOkToDraw.set(false);
+            // Wait for the frame being drawn, if any.
+            synchronized (mSurfaceLock) {
+                mOkToDraw.set(false);
+            }
         }
     };
 
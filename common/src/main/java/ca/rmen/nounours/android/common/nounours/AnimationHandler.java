@@ -24,6 +24,7 @@ import android.os.HandlerThread;
 import android.os.SystemClock;
 import android.util.Log;
 
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import ca.rmen.nounours.Nounours;
@@ -34,6 +35,11 @@ import ca.rmen.nounours.data.AnimationImage;
 
 /**
  * Manages the Nounours animations displayed to the Android device.
+ * <p/>
+ * The time at which each frame is due is computed from the start of the animation, with the
+ * monotonic {@link SystemClock#uptimeMillis()} clock, and each frame is posted for that time.  So
+ * the time spent displaying a frame, or a late frame, doesn't delay the rest of the animation.
+ * If we're so late that the next frame is already due, the current one is dropped.
  *
  * @author Carmen Alvarez
  */
@@ -44,6 +50,7 @@ class AnimationHandler implements NounoursAnimationHandler {
     private final AtomicBoolean mIsDoingAnimation = new AtomicBoolean();
     private final Handler mBackgroundHandler;
     private final AnimationTask mAnimationTask;
+    private volatile AnimationStats mLastAnimationStats;
 
     public AnimationHandler(Nounours nounours) {
         mNounours = nounours;
@@ -65,14 +72,20 @@ class AnimationHandler implements NounoursAnimationHandler {
 
     /**
      * The user selected an animation from the menu. Display the animation.
+     * If another animation is running, it is replaced by this one.
      *
      * @see ca.rmen.nounours.Nounours#doAnimation(Animation, boolean)
      */
     @Override
     public void doAnimation(final Animation animation, final boolean isDynamicAnimation) {
         Log.v(TAG, "doAnimation: " + animation);
-        mAnimationTask.setAnimation(animation, isDynamicAnimation);
-        mBackgroundHandler.post(mAnimationTask);
+        mIsDoingAnimation.set(true);
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mAnimationTask.start(animation, isDynamicAnimation);
+            }
+        });
     }
 
     /**
@@ -95,40 +108,115 @@ class AnimationHandler implements NounoursAnimationHandler {
         // Do nothing
     }
 
+    /**
+     * @return the timing statistics of the last animation which ended, or null if no animation
+     * ended yet.
+     */
+    AnimationStats getLastAnimationStats() {
+        return mLastAnimationStats;
+    }
+
+    /**
+     * Displays one frame of the animation each time it's run, and posts itself for the time the
+     * next frame is due.  Only accessed from the background thread.
+     */
     private class AnimationTask implements Runnable {
 
         private Animation mAnimation;
         private boolean mIsDynamicAnimation;
+        private List<AnimationImage> mImages;
+        private int mFrameCount;
+
+        // Index of the next frame to display, counting the repetitions.
+        private int mNextFrame;
+        // Uptime at which the animation started.
+        private long mStartTime;
+        // Time at which the next frame is due, relative to the start of the animation.
+        // Accumulated as a double, so that rounding errors don't add up over the frames.
+        private double mNextFrameOffset;
+
+        private int mDisplayedFrameCount;
+        private int mDroppedFrameCount;
+        private long mTotalJitter;
+        private long mMaxJitter;
+
+        void start(Animation animation, boolean isDynamicAnimation) {
+            // Cancel the next frame of the animation we're replacing, if any.
+            mBackgroundHandler.removeCallbacks(this);
+            if (mAnimation != null) finish(false);
 
-        public void setAnimation(Animation animation, boolean isDynamicAnimation) {
             mAnimation = animation;
             mIsDynamicAnimation = isDynamicAnimation;
+            mImages = animation.getImages();
+            mFrameCount = animation.getRepeat() * mImages.size();
+            mNextFrame = 0;
+            mNextFrameOffset = 0;
+            mDisplayedFrameCount = 0;
+            mDroppedFrameCount = 0;
+            mTotalJitter = 0;
+            mMaxJitter = 0;
+            mStartTime = SystemClock.uptimeMillis();
+            mIsDoingAnimation.set(true);
+            run();
         }
 
         @Override
         public void run() {
-            // Note that we are doing an animation
-            mIsDoingAnimation.set(true);
+            if (mAnimation == null) return;
+            if (!mIsDoingAnimation.get() || mNextFrame >= mFrameCount) {
+                finish(mNextFrame >= mFrameCount);
+                return;
+            }
+
+            long now = SystemClock.uptimeMillis();
+            // Skip the frames which are already over.
+            double frameOffset = mNextFrameOffset;
+            double nextFrameOffset = frameOffset + getFrameDuration(mNextFrame);
+            while (mNextFrame + 1 < mFrameCount && mStartTime + (long) nextFrameOffset <= now) {
+                mDroppedFrameCount++;
+                mNextFrame++;
+                frameOffset = nextFrameOffset;
+                nextFrameOffset += getFrameDuration(mNextFrame);
+            }
+
+            long jitter = now - (mStartTime + (long) frameOffset);
+            mTotalJitter += jitter;
+            if (jitter > mMaxJitter) mMaxJitter = jitter;
+            mDisplayedFrameCount++;
+            mNounours.setImage(mImages.get(mNextFrame % mImages.size()).getImage());
+
+            mNextFrame++;
+            mNextFrameOffset = nextFrameOffset;
+            // After the last frame, we come back once more, when it's over, to end the animation.
+            mBackgroundHandler.postAtTime(this, mStartTime + (long) mNextFrameOffset);
+        }
+
+        private double getFrameDuration(int frame) {
+            return mAnimation.getInterval() * mImages.get(frame % mImages.size()).getDuration();
+        }
 
-            // Iterate through each of the images and display them.
-            for (int i = 0; i < mAnimation.getRepeat(); i++) {
-                for (AnimationImage image : mAnimation.getImages()) {
-                    long before = System.currentTimeMillis();
-                    mNounours.setImage(image.getImage());
-                    long frameDuration = (long) (mAnimation.getInterval() * image.getDuration());
-                    // after - before: time wasted displaying the image itself.
-                    // we'll subtract it from the time to sleep for this frame.
-                    long after = System.currentTimeMillis();
-                    long frameDurationCorrection = after - before;
-                    long shorterFrameDuration = frameDuration - frameDurationCorrection;
-                    if (shorterFrameDuration > 0) SystemClock.sleep(shorterFrameDuration);
-                    if(!mIsDoingAnimation.get()) break;
-                }
-                if(!mIsDoingAnimation.get()) break;
+        private void finish(boolean isComplete) {
+            long drift = SystemClock.uptimeMillis() - (mStartTime + (long) mNextFrameOffset);
+            AnimationStats stats = new AnimationStats(
+                    mAnimation.getId(),
+                    mFrameCount,
+                    mDisplayedFrameCount,
+                    mDroppedFrameCount,
+                    mDisplayedFrameCount == 0 ? 0 : mTotalJitter / mDisplayedFrameCount,
+                    mMaxJitter,
+                    drift,
+                    isComplete);
+            Log.v(TAG, "Animation ended: " + stats);
+            mLastAnimationStats = stats;
+            boolean isDynamicAnimation = mIsDynamicAnimation;
+            mAnimation = null;
+            mImages = null;
+            // If we're replacing this animation, the next one takes care of the image.
+            if (isComplete || !mIsDoingAnimation.get()) {
+                if (!isDynamicAnimation) mNounours.reset();
+                // No longer doing an animation.
+                mIsDoingAnimation.set(false);
             }
-            if (!mIsDynamicAnimation) mNounours.reset();
-            // No longer doing an animation.
-            mIsDoingAnimation.set(false);
         }
     }
 }
@@ -0,0 +1,109 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.rmen.nounours.android.common.nounours;
+
+/**
+ * Timing statistics of one run of an animation.
+ */
+public final class AnimationStats {
+    private final String mAnimationId;
+    private final int mFrameCount;
+    private final int mDisplayedFrameCount;
+    private final int mDroppedFrameCount;
+    private final long mMeanJitterMs;
+    private final long mMaxJitterMs;
+    private final long mDriftMs;
+    private final boolean mIsComplete;
+
+    AnimationStats(String animationId,
+                   int frameCount,
+                   int displayedFrameCount,
+                   int droppedFrameCount,
+                   long meanJitterMs,
+                   long maxJitterMs,
+                   long driftMs,
+                   boolean isComplete) {
+        mAnimationId = animationId;
+        mFrameCount = frameCount;
+        mDisplayedFrameCount = displayedFrameCount;
+        mDroppedFrameCount = droppedFrameCount;
+        mMeanJitterMs = meanJitterMs;
+        mMaxJitterMs = maxJitterMs;
+        mDriftMs = driftMs;
+        mIsComplete = isComplete;
+    }
+
+    public String getAnimationId() {
+        return mAnimationId;
+    }
+
+    /**
+     * @return the number of frames in the animation, including the repetitions.
+     */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public int getDisplayedFrameCount() {
+        return mDisplayedFrameCount;
+    }
+
+    /**
+     * @return the number of frames skipped because we were already late for the next one.
+     */
+    public int getDroppedFrameCount() {
+        return mDroppedFrameCount;
+    }
+
+    /**
+     * @return the average delay between the time a frame was due, and the time it was displayed.
+     */
+    public long getMeanJitterMs() {
+        return mMeanJitterMs;
+    }
+
+    public long getMaxJitterMs() {
+        return mMaxJitterMs;
+    }
+
+    /**
+     * @return how late the animation ended, compared to its theoretical duration.
+     */
+    public long getDriftMs() {
+        return mDriftMs;
+    }
+
+    /**
+     * @return false if the animation was stopped, or replaced by another one, before its end.
+     */
+    public boolean isComplete() {
+        return mIsComplete;
+    }
+
+    @Override
+    public String toString() {
+        return mAnimationId
+                + ": frames=" + mDisplayedFrameCount + "/" + mFrameCount
+                + ", dropped=" + mDroppedFrameCount
+                + ", jitter(mean/max)=" + mMeanJitterMs + "/" + mMaxJitterMs + "ms"
+                + ", drift=" + mDriftMs + "ms"
+                + ", complete=" + mIsComplete;
+    }
+}
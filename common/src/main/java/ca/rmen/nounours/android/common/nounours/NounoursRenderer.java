@@ -6,16 +6,246 @@ import android.graphics.ColorMatrix;
 import android.graphics.ColorMatrixColorFilter;
 import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.SystemClock;
+import android.util.Log;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ca.rmen.nounours.android.common.Constants;
+import ca.rmen.nounours.android.common.compat.BitmapCompat;
 import ca.rmen.nounours.android.common.settings.NounoursSettings;
 
+/**
+ * Draws nounours images, scaled to fit in the view, on the view's background color.
+ * <p/>
+ * Each frame is drawn once in a bitmap the size of the view, and kept in a cache: when the same
+ * image is displayed again, we just copy its frame to the view.  The cache is bound to a
+ * view size and display settings, and is emptied when they change.  Frames are keyed by the
+ * image's bitmap: {@link #removeFrame(Bitmap)} must be called when the bitmap is released from the
+ * image cache, or the frame would keep it in memory, out of the image cache's budget.
+ * <p/>
+ * When the images of an animation don't all fit in the cache, evicting the least recently used
+ * frame would evict the one needed next, and every frame would be drawn twice.  Instead, a frame is
+ * only evicted if it hasn't been displayed for a while: the images which don't fit are drawn
+ * directly on the view.
+ * <p/>
+ * When only part of the image changes from one frame to the next, {@link #getDirtyRect} tells
+ * which part of the view needs to be redrawn.
+ */
 public class NounoursRenderer {
+    private static final String TAG = Constants.TAG + NounoursRenderer.class.getSimpleName();
+
+    private static final int GRAYSCALE_BACKGROUND_COLOR = 0xff000000;
+    private static final int DIM_COLOR = 0x88000000;
+    // A frame which wasn't displayed for this long isn't part of the current animation.
+    private static final long STALE_FRAME_MS = 5000;
+
+    private final Paint mPaint = new Paint();
+    private final Paint mGrayscalePaint = new Paint();
+    private final Matrix mMatrix = new Matrix();
+    private final Matrix mDirtyRectMatrix = new Matrix();
+    private final RectF mDirtyRectF = new RectF();
+
+    private final Canvas mFrameCanvas = new Canvas();
+    // Access-ordered, keyed by source bitmap: iteration starts with the least recently used frame.
+    private final LinkedHashMap<Bitmap, Frame> mFrames = new LinkedHashMap<>(16, 0.75f, true);
+    private final long mMaxFrameCacheBytes;
+    private long mFrameCacheBytes;
+    // When the cache is full, no frame can be evicted before this time.
+    private long mNextEvictionTime;
+
+    // The view size and settings for which the cached frames were drawn.
+    private int mFrameWidth;
+    private int mFrameHeight;
+    private int mFrameBackgroundColor;
+    private boolean mFrameGrayscale;
+    private boolean mFrameDimmed;
+
+    /**
+     * Cache frames in up to 1/16 of the heap: half of what
+     * {@link ca.rmen.nounours.android.common.nounours.cache.ImageCache#getRecommendedMaxSize()}
+     * gives to the images.
+     */
+    public NounoursRenderer() {
+        this(Runtime.getRuntime().maxMemory() / 16);
+    }
+
+    /**
+     * @param maxFrameCacheBytes the maximum total size, in bytes, of the cached frames.  At least
+     *                           one frame is always cached.
+     */
+    public NounoursRenderer(long maxFrameCacheBytes) {
+        mMaxFrameCacheBytes = maxFrameCacheBytes;
+        ColorMatrix colorMatrix = new ColorMatrix();
+        colorMatrix.setSaturation(0);
+        mGrayscalePaint.setColorFilter(new ColorMatrixColorFilter(colorMatrix));
+    }
+
     public void render(NounoursSettings settings,
                        Bitmap bitmap,
                        Canvas c,
                        int viewWidth, int viewHeight) {
-        int bitmapWidth = bitmap.getWidth();
-        int bitmapHeight = bitmap.getHeight();
+        if (viewWidth <= 0 || viewHeight <= 0) {
+            drawFrame(settings, bitmap, c, viewWidth, viewHeight);
+            return;
+        }
+        synchronized (mFrames) {
+            Bitmap frame = getFrame(settings, bitmap, viewWidth, viewHeight);
+            if (frame == null) drawFrame(settings, bitmap, c, viewWidth, viewHeight);
+            else c.drawBitmap(frame, 0, 0, null);
+        }
+    }
+
+    /**
+     * @param bitmap      the image which will be rendered
+     * @param changedArea the part of the image which changed since the previous frame, as fractions
+     *                    of the image size
+     * @param outDirtyRect set to the part of the view to redraw. May be empty if the change isn't visible.
+     * @return false if this renderer can't redraw only part of the view.
+     */
+    public boolean getDirtyRect(Bitmap bitmap, RectF changedArea, int viewWidth, int viewHeight, Rect outDirtyRect) {
+        if (!canRedrawPartially() || viewWidth <= 0 || viewHeight <= 0) return false;
+        synchronized (mFrames) {
+            int bitmapWidth = bitmap.getWidth();
+            int bitmapHeight = bitmap.getHeight();
+            // Add a margin of one pixel, for the bitmap filtering when scaling.
+            mDirtyRectF.set(changedArea.left * bitmapWidth - 1,
+                    changedArea.top * bitmapHeight - 1,
+                    changedArea.right * bitmapWidth + 1,
+                    changedArea.bottom * bitmapHeight + 1);
+            setFitMatrix(mDirtyRectMatrix, bitmapWidth, bitmapHeight, viewWidth, viewHeight);
+            mDirtyRectMatrix.mapRect(mDirtyRectF);
+            mDirtyRectF.roundOut(outDirtyRect);
+            if (!outDirtyRect.intersect(0, 0, viewWidth, viewHeight)) outDirtyRect.setEmpty();
+            return true;
+        }
+    }
+
+    /**
+     * @return false if something else than this renderer may draw on the view between two frames,
+     * in which case the view must always be redrawn completely.
+     */
+    protected boolean canRedrawPartially() {
+        return true;
+    }
+
+    /**
+     * Forget the cached frames.  To be called when the view size or the display settings change.
+     */
+    public void invalidate() {
+        synchronized (mFrames) {
+            Log.v(TAG, "invalidate: " + mFrames.size() + " frames, " + mFrameCacheBytes + " bytes");
+            for (Frame frame : mFrames.values()) {
+                frame.bitmap.recycle();
+            }
+            mFrames.clear();
+            mFrameCacheBytes = 0;
+            mNextEvictionTime = 0;
+        }
+    }
+
+    /**
+     * Forget the frame of an image which won't be rendered again.  The image's bitmap may be reused
+     * to decode another image, which mustn't get this frame.
+     */
+    public void removeFrame(Bitmap bitmap) {
+        synchronized (mFrames) {
+            Frame frame = mFrames.remove(bitmap);
+            if (frame == null) return;
+            frame.bitmap.recycle();
+            mFrameCacheBytes -= frame.byteCount;
+        }
+    }
+
+    /**
+     * @return the frame for the given image, drawing it if it's not in the cache yet, or null if
+     * there isn't enough memory to create it.
+     */
+    private Bitmap getFrame(NounoursSettings settings, Bitmap bitmap, int viewWidth, int viewHeight) {
+        boolean isGrayscale = settings.isGrayscale();
+        boolean isDimmed = settings.isImageDimmed();
+        int backgroundColor = isGrayscale ? GRAYSCALE_BACKGROUND_COLOR : settings.getBackgroundColor();
+        if (viewWidth != mFrameWidth || viewHeight != mFrameHeight
+                || backgroundColor != mFrameBackgroundColor
+                || isGrayscale != mFrameGrayscale || isDimmed != mFrameDimmed) {
+            invalidate();
+            mFrameWidth = viewWidth;
+            mFrameHeight = viewHeight;
+            mFrameBackgroundColor = backgroundColor;
+            mFrameGrayscale = isGrayscale;
+            mFrameDimmed = isDimmed;
+        }
+
+        long now = SystemClock.uptimeMillis();
+        Frame frame = mFrames.get(bitmap);
+        if (frame != null) {
+            frame.lastUsedTime = now;
+            return frame.bitmap;
+        }
+
+        Bitmap frameBitmap = createFrameBitmap(viewWidth, viewHeight, isGrayscale || isDimmed, now);
+        if (frameBitmap == null) return null;
+        frame = new Frame(frameBitmap);
+        frame.lastUsedTime = now;
+        mFrames.put(bitmap, frame);
+        mFrameCacheBytes += frame.byteCount;
+        mFrameCanvas.setBitmap(frame.bitmap);
+        drawFrame(settings, bitmap, mFrameCanvas, viewWidth, viewHeight);
+        return frame.bitmap;
+    }
+
+    /**
+     * @param isOpaqueAndMuted if true, the frame is drawn in grayscale or dimmed, so it doesn't
+     *                         need the color precision of ARGB_8888.
+     * @return a bitmap for a new frame.  If the cache is full, this is the bitmap of the least
+     * recently used frame, which is evicted, or null if that frame is still in use.
+     */
+    private Bitmap createFrameBitmap(int width, int height, boolean isOpaqueAndMuted, long now) {
+        Bitmap.Config config = isOpaqueAndMuted ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        long byteCount = (long) width * height * (config == Bitmap.Config.RGB_565 ? 2 : 4);
+        if (!mFrames.isEmpty() && mFrameCacheBytes + byteCount > mMaxFrameCacheBytes) {
+            // The working set doesn't fit in the cache: don't cache this frame.
+            if (now < mNextEvictionTime) return null;
+            Iterator<Map.Entry<Bitmap, Frame>> iterator = mFrames.entrySet().iterator();
+            Frame eldest = iterator.next().getValue();
+            if (now - eldest.lastUsedTime < STALE_FRAME_MS) {
+                mNextEvictionTime = eldest.lastUsedTime + STALE_FRAME_MS;
+                return null;
+            }
+            iterator.remove();
+            mFrameCacheBytes -= eldest.byteCount;
+            return eldest.bitmap;
+        }
+        try {
+            return Bitmap.createBitmap(width, height, config);
+        } catch (OutOfMemoryError e) {
+            Log.w(TAG, "Not enough memory to cache a " + width + "x" + height + " frame", e);
+            return null;
+        }
+    }
+
+    /**
+     * Draw the image, scaled to fit in the view, on the background color.
+     */
+    private void drawFrame(NounoursSettings settings, Bitmap bitmap, Canvas c, int viewWidth, int viewHeight) {
+        if (settings.isGrayscale()) c.drawColor(GRAYSCALE_BACKGROUND_COLOR);
+        else c.drawColor(settings.getBackgroundColor());
+        setFitMatrix(mMatrix, bitmap.getWidth(), bitmap.getHeight(), viewWidth, viewHeight);
+        c.save();
+        c.concat(mMatrix);
+        c.drawBitmap(bitmap, 0, 0, settings.isGrayscale() ? mGrayscalePaint : mPaint);
+        c.restore();
+        if (settings.isImageDimmed()) c.drawColor(DIM_COLOR);
+    }
+
+    /**
+     * Set the matrix to center the image in the view, scaled to fit in it.
+     */
+    private static void setFitMatrix(Matrix m, int bitmapWidth, int bitmapHeight, int viewWidth, int viewHeight) {
         int deviceCenterX = viewWidth / 2;
         int deviceCenterY = viewHeight / 2;
         int bitmapCenterX = bitmapWidth / 2;
@@ -27,21 +257,19 @@ public class NounoursRenderer {
         float offsetY = deviceCenterY - bitmapCenterY;
 
         float scaleToUse = (scaleX < scaleY) ? scaleX : scaleY;
-        if (settings.isGrayscale()) c.drawColor(0xff000000);
-        else c.drawColor(settings.getBackgroundColor());
-        Matrix m = new Matrix();
+        m.reset();
         m.postTranslate(offsetX, offsetY);
         m.postScale(scaleToUse, scaleToUse, deviceCenterX, deviceCenterY);
-        c.setMatrix(m);
+    }
+
+    private static final class Frame {
+        private final Bitmap bitmap;
+        private final int byteCount;
+        private long lastUsedTime;
 
-        Paint paint = new Paint();
-        if (settings.isGrayscale()) {
-            ColorMatrix colorMatrix = new ColorMatrix();
-            colorMatrix.setSaturation(0);
-            ColorMatrixColorFilter filter = new ColorMatrixColorFilter(colorMatrix);
-            paint.setColorFilter(filter);
+        private Frame(Bitmap bitmap) {
+            this.bitmap = bitmap;
+            this.byteCount = BitmapCompat.getByteCount(bitmap);
         }
-        c.drawBitmap(bitmap, 0, 0, paint);
-        if (settings.isImageDimmed()) c.drawColor(0x88000000);
     }
 }
@@ -0,0 +1,110 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.rmen.nounours.android.common.nounours;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ca.rmen.nounours.android.common.Constants;
+import ca.rmen.nounours.android.common.compat.ChoreographerCompat;
+import ca.rmen.nounours.data.Image;
+
+/**
+ * Draws the images on a dedicated thread, at most once per display frame.
+ * <p/>
+ * Images can be requested from any thread (animations, touch events, sensors).  If several images
+ * are requested before the next frame, only the last one is drawn.
+ */
+class RenderThread {
+    private static final String TAG = Constants.TAG + RenderThread.class.getSimpleName();
+
+    interface ImageDrawer {
+        /**
+         * Called on the render thread to draw the image.
+         */
+        void drawImage(Image image);
+    }
+
+    private final ImageDrawer mImageDrawer;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final ChoreographerCompat mChoreographer;
+    private final AtomicReference<Image> mPendingImage = new AtomicReference<>();
+    private final AtomicBoolean mIsFrameRequested = new AtomicBoolean();
+
+    RenderThread(String name, ImageDrawer imageDrawer) {
+        mImageDrawer = imageDrawer;
+        mThread = new HandlerThread(TAG + name);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mChoreographer = new ChoreographerCompat(mHandler, mDrawFrameTask);
+    }
+
+    /**
+     * Draw the given image at the next frame, unless another image is requested before that.
+     */
+    void requestRender(Image image) {
+        mPendingImage.set(image);
+        if (mIsFrameRequested.compareAndSet(false, true)) {
+            mHandler.post(mRequestFrameTask);
+        }
+    }
+
+    /**
+     * Run the task on the render thread, after the image being drawn, if any.
+     *
+     * @return false if the thread has quit: the task won't run.
+     */
+    boolean post(Runnable task) {
+        return mHandler.post(task);
+    }
+
+    /**
+     * Stop the thread once the tasks which were already posted have run.
+     */
+    void quit() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mThread.quit();
+            }
+        });
+    }
+
+    private final Runnable mRequestFrameTask = new Runnable() {
+        @Override
+        public void run() {
+            mChoreographer.postFrame();
+        }
+    };
+
+    private final Runnable mDrawFrameTask = new Runnable() {
+        @Override
+        public void run() {
+            // Images requested from now on need another frame.
+            mIsFrameRequested.set(false);
+            Image image = mPendingImage.getAndSet(null);
+            if (image != null) mImageDrawer.drawImage(image);
+        }
+    };
+}
@@ -0,0 +1,181 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.rmen.nounours.android.common.nounours.cache;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ca.rmen.nounours.android.common.Constants;
+import ca.rmen.nounours.data.Animation;
+import ca.rmen.nounours.data.AnimationImage;
+import ca.rmen.nounours.data.Image;
+import ca.rmen.nounours.data.Theme;
+
+/**
+ * For each pair of consecutive images in the animations of a theme, the area which differs
+ * between the two images.  This allows redrawing only that area when an animation goes from one
+ * image to the next.
+ * <p/>
+ * The comparison is exact: any pixel which differs is in the changed area.  Ignoring small
+ * differences would shrink the areas, as the theme images are JPEGs, but the differences left on
+ * the surface would add up over the images of an animation.
+ */
+class FrameDiffCache {
+    private static final String TAG = Constants.TAG + FrameDiffCache.class.getSimpleName();
+
+    // from image -> to image -> changed area, as fractions of the image size.
+    private volatile Map<Image, Map<Image, RectF>> mDiffs = Collections.emptyMap();
+    private int mGeneration;
+
+    /**
+     * @return the area which differs between the two images, as fractions of the image size (empty
+     * if the images are the same), or null if we don't know.
+     */
+    RectF getChangedArea(Image from, Image to) {
+        Map<Image, RectF> diffs = mDiffs.get(from);
+        if (diffs == null) return null;
+        return diffs.get(to);
+    }
+
+    void clear() {
+        synchronized (this) {
+            mGeneration++;
+            mDiffs = Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Compare the consecutive images of all the animations of the theme.  This decodes the images
+     * which aren't in the image cache yet: it should be called in a background thread.
+     * Stops if {@link #clear()} is called in the meantime.
+     */
+    void compute(Context context, Theme theme, ImageCache imageCache) {
+        // An image evicted while we read its pixels mustn't be overwritten by another image.
+        ImageStore.getInstance().pauseReuse();
+        try {
+            computeDiffs(context, theme, imageCache);
+        } finally {
+            ImageStore.getInstance().resumeReuse();
+        }
+    }
+
+    private void computeDiffs(Context context, Theme theme, ImageCache imageCache) {
+        final int generation;
+        synchronized (this) {
+            generation = mGeneration;
+        }
+        Map<Image, Map<Image, RectF>> diffs = new HashMap<>();
+        int[] fromRow = null;
+        int[] toRow = null;
+        int[] bounds = new int[4];
+        int diffCount = 0;
+        for (Animation animation : theme.getAnimations().values()) {
+            List<AnimationImage> images = animation.getImages();
+            for (int i = 0; i < images.size(); i++) {
+                // When the animation repeats, its last image is followed by its first one.
+                if (i == images.size() - 1 && animation.getRepeat() <= 1) break;
+                Image from = images.get(i).getImage();
+                Image to = images.get((i + 1) % images.size()).getImage();
+                Map<Image, RectF> fromDiffs = diffs.get(from);
+                if (fromDiffs == null) {
+                    fromDiffs = new HashMap<>();
+                    diffs.put(from, fromDiffs);
+                } else if (fromDiffs.containsKey(to)) {
+                    continue;
+                }
+
+                synchronized (this) {
+                    if (generation != mGeneration) return;
+                }
+                Bitmap fromBitmap = imageCache.getDrawableImage(context, theme.getId(), from);
+                Bitmap toBitmap = imageCache.getDrawableImage(context, theme.getId(), to);
+                if (fromBitmap == null || toBitmap == null
+                        || fromBitmap.getWidth() != toBitmap.getWidth()
+                        || fromBitmap.getHeight() != toBitmap.getHeight()) {
+                    continue;
+                }
+                int width = fromBitmap.getWidth();
+                if (fromRow == null || fromRow.length < width) {
+                    fromRow = new int[width];
+                    toRow = new int[width];
+                }
+                fromDiffs.put(to, getChangedArea(fromBitmap, toBitmap, fromRow, toRow, bounds));
+                diffCount++;
+            }
+        }
+        synchronized (this) {
+            if (generation != mGeneration) return;
+            mDiffs = diffs;
+        }
+        Log.v(TAG, "Computed " + diffCount + " frame differences for theme " + theme.getId());
+    }
+
+    /**
+     * @return the bounding box of the pixels which differ between the two bitmaps, which must have
+     * the same size, as fractions of their size.
+     */
+    private static RectF getChangedArea(Bitmap from, Bitmap to, int[] fromRow, int[] toRow, int[] bounds) {
+        int width = from.getWidth();
+        int height = from.getHeight();
+        resetBounds(bounds, width, height);
+        for (int y = 0; y < height; y++) {
+            from.getPixels(fromRow, 0, width, 0, y, width, 1);
+            to.getPixels(toRow, 0, width, 0, y, width, 1);
+            addChangedPixels(fromRow, toRow, width, y, bounds);
+        }
+        if (bounds[2] < 0) return new RectF();
+        return new RectF((float) bounds[0] / width, (float) bounds[1] / height, (float) (bounds[2] + 1) / width, (float) (bounds[3] + 1) / height);
+    }
+
+    /**
+     * Set the bounds to an empty area, before calling {@link #addChangedPixels}.
+     */
+    static void resetBounds(int[] bounds, int width, int height) {
+        bounds[0] = width;
+        bounds[1] = height;
+        bounds[2] = -1;
+        bounds[3] = -1;
+    }
+
+    /**
+     * Grow the bounds to include the pixels which differ between the two rows.
+     *
+     * @param fromRow the ARGB pixels of row y in the first image
+     * @param toRow   the ARGB pixels of row y in the second image
+     * @param bounds  the left, top, right and bottom (inclusive) of the changed pixels found so far
+     */
+    static void addChangedPixels(int[] fromRow, int[] toRow, int width, int y, int[] bounds) {
+        for (int x = 0; x < width; x++) {
+            if (fromRow[x] != toRow[x]) {
+                if (x < bounds[0]) bounds[0] = x;
+                if (x > bounds[2]) bounds[2] = x;
+                if (y < bounds[1]) bounds[1] = y;
+                bounds[3] = y;
+            }
+        }
+    }
+}
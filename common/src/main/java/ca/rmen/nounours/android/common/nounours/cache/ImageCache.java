@@ -24,85 +24,438 @@ import android.os.Handler;
 import android.util.Log;
 
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import ca.rmen.nounours.android.common.Constants;
+import ca.rmen.nounours.android.common.compat.BitmapCompat;
 import ca.rmen.nounours.data.Image;
 import ca.rmen.nounours.android.common.util.BitmapUtil;
 
+/**
+ * Keeps the decoded bitmaps of a theme in memory.
+ * <p/>
+ * The bitmaps themselves are shared with the other caches of the process, through the
+ * {@link ImageStore}: this cache only holds references to them.
+ * <p/>
+ * By default the cache is unbounded: all the images of the theme stay in memory until
+ * {@link #clearImageCache()} is called.  If a maximum size is given, the least recently used
+ * bitmaps are evicted once the total size of the cached bitmaps exceeds it, and they are decoded
+ * again the next time they are requested.  If an {@link ImageReleaseListener} is set, the evicted
+ * bitmaps can be reused to decode other images, once the listener confirms that they are no longer
+ * drawn.
+ * <p/>
+ * On multi-core devices, {@link #cacheImages(Context, Collection, Handler, ImageCacheListener)}
+ * decodes several images at the same time.
+ */
 public class ImageCache {
 
 
     private static final String TAG = Constants.TAG + ImageCache.class.getSimpleName();
+    // Decoding is mostly cpu-bound, but each thread holds a full decoded bitmap: don't go too wide.
+    private static final int MAX_PRELOAD_THREADS = 4;
 
-    private final Map<String, Bitmap> mImageCache = new ConcurrentHashMap<>();
+    private final ImageStore mImageStore = ImageStore.getInstance();
+    // Access-ordered: iteration starts with the least recently used image.
+    private final LinkedHashMap<String, CachedImage> mImageCache = new LinkedHashMap<>(16, 0.75f, true);
+    private String mThemeId;
+    // Incremented every time the cache is cleared, to abort the preloads of the previous theme.
+    private int mGeneration;
+    private int mTargetWidth;
+    private int mTargetHeight;
+    private boolean mPreferRgb565;
+    private final long mMaxSizeBytes;
+    private long mSizeBytes;
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+    private ImageReleaseListener mImageReleaseListener;
 
     public interface ImageCacheListener {
         void onImageLoaded(Image image, int progress, int total);
     }
 
+    public interface ImageReleaseListener {
+        /**
+         * Called, from any thread, when the cache evicts or clears a bitmap.
+         *
+         * @param canBeReused true if the bitmap was evicted.  Once it's no longer drawn, the
+         *                    listener must call {@link #onImageNoLongerDrawn(Bitmap)}, so that
+         *                    the bitmap may be reused.
+         */
+        void onImageReleased(Bitmap bitmap, boolean canBeReused);
+    }
+
     public ImageCache() {
-        Log.v(TAG, "Constructor");
+        this(0);
+    }
+
+    /**
+     * @param maxSizeBytes the maximum total size, in bytes, of the bitmaps to keep in memory.
+     *                     0 means no limit.
+     */
+    public ImageCache(long maxSizeBytes) {
+        Log.v(TAG, "Constructor: maxSizeBytes = " + maxSizeBytes);
+        mMaxSizeBytes = maxSizeBytes;
+    }
+
+    public void setImageReleaseListener(ImageReleaseListener listener) {
+        synchronized (mImageCache) {
+            mImageReleaseListener = listener;
+        }
+    }
+
+    /**
+     * @param bitmap a bitmap given to {@link ImageReleaseListener#onImageReleased(Bitmap, boolean)}
+     *               as reusable, which will no longer be drawn.
+     */
+    public void onImageNoLongerDrawn(Bitmap bitmap) {
+        mImageStore.confirmReleased(bitmap);
+    }
+
+    /**
+     * @return a reasonable maximum cache size for a process which shows a single theme.
+     */
+    public static long getRecommendedMaxSize() {
+        return Runtime.getRuntime().maxMemory() / 8;
+    }
+
+    /**
+     * Images requested from now on belong to the given theme.  If this cache contained the
+     * images of another theme, they are released.
+     */
+    public void useTheme(String themeId) {
+        synchronized (mImageCache) {
+            if (themeId == null ? mThemeId == null : themeId.equals(mThemeId)) return;
+            // Change the theme in the same lock as clearing the cache, so no image of the
+            // previous theme can be cached under the new theme.
+            Log.v(TAG, "useTheme " + themeId + ": " + getStats());
+            releaseAll();
+            mThemeId = themeId;
+        }
+        System.gc();
+    }
+
+    /**
+     * Set how the images will be displayed, to decode them with no more pixels or precision than
+     * needed.  This only affects the images decoded from now on, unless the target size grows: in
+     * that case the cached images are too small, and are released.
+     *
+     * @param targetWidth  the width of the surface the images are displayed in. 0 for full size.
+     * @param targetHeight the height of the surface the images are displayed in. 0 for full size.
+     * @param preferRgb565 true if the images are displayed in grayscale or dimmed.
+     * @return true if cached images were released: the caller may want to load them again.
+     * @see BitmapUtil#createBitmap(Context, Image, Bitmap.Config, int, int, BitmapUtil.BitmapPool)
+     */
+    public boolean setDecodeOptions(int targetWidth, int targetHeight, boolean preferRgb565) {
+        synchronized (mImageCache) {
+            mPreferRgb565 = preferRgb565;
+            if (targetWidth == mTargetWidth && targetHeight == mTargetHeight) return false;
+            boolean targetGrew = mTargetWidth > 0 && mTargetHeight > 0
+                    && (targetWidth <= 0 || targetHeight <= 0 || targetWidth > mTargetWidth || targetHeight > mTargetHeight);
+            Log.v(TAG, "setDecodeOptions: " + targetWidth + "x" + targetHeight + ", target grew: " + targetGrew);
+            boolean releasedImages = targetGrew && !mImageCache.isEmpty();
+            if (targetGrew) releaseAll();
+            mTargetWidth = targetWidth;
+            mTargetHeight = targetHeight;
+            return releasedImages;
+        }
+    }
+
+    /**
+     * @return the number of threads to use to preload the images of a theme.
+     */
+    private static int getPreloadThreadCount() {
+        return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_PRELOAD_THREADS));
     }
 
     /**
      * Load the images into memory.
+     * <p/>
+     * The listener is notified in the order the images finish loading, which isn't necessarily the
+     * order of the given collection.
+     *
+     * @return false if an image couldn't be loaded, or if the cache was cleared (because another
+     * theme was requested) before all the images were loaded.
      */
     public boolean cacheImages(Context context, Collection<Image> images, Handler uiHandler, final ImageCacheListener listener) {
-        Log.v(TAG, "cacheImages");
+        final int generation;
+        synchronized (mImageCache) {
+            generation = mGeneration;
+        }
+        return cacheImages(context, images, uiHandler, listener, generation);
+    }
+
+    /**
+     * Load the images of the given theme into memory, unless this cache has been cleared or has
+     * switched to another theme in the meantime.
+     *
+     * @see #cacheImages(Context, Collection, Handler, ImageCacheListener)
+     */
+    public boolean cacheImages(Context context, String themeId, Collection<Image> images, Handler uiHandler, final ImageCacheListener listener) {
+        final int generation;
+        synchronized (mImageCache) {
+            if (!themeId.equals(mThemeId)) return false;
+            generation = mGeneration;
+        }
+        return cacheImages(context, images, uiHandler, listener, generation);
+    }
+
+    private boolean cacheImages(Context context, Collection<Image> images, Handler uiHandler, ImageCacheListener listener, int generation) {
+        final int threadCount = Math.min(getPreloadThreadCount(), images.size());
+        Log.v(TAG, "cacheImages: " + images.size() + " images, " + threadCount + " threads");
+        if (threadCount <= 1) return cacheImagesSerially(context, images, uiHandler, listener, generation);
+        return cacheImagesInParallel(context, images, uiHandler, listener, generation, threadCount);
+    }
+
+    private boolean cacheImagesSerially(Context context, Collection<Image> images, Handler uiHandler, ImageCacheListener listener, int generation) {
         int i = 0;
         final int max = images.size();
         for (final Image image : images) {
-            Bitmap bitmap = loadImage(context, image);
+            Bitmap bitmap = loadImage(context, image, generation);
             if (bitmap == null)
                 return false;
             i++;
-            final int progress = i;
-            uiHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    listener.onImageLoaded(image, progress, max);
-                }
-            });
+            notifyImageLoaded(uiHandler, listener, image, i, max);
         }
         return true;
     }
 
+    private boolean cacheImagesInParallel(final Context context,
+                                          Collection<Image> images,
+                                          Handler uiHandler,
+                                          ImageCacheListener listener,
+                                          final int generation,
+                                          int threadCount) {
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        CompletionService<Image> completionService = new ExecutorCompletionService<>(executor);
+        try {
+            for (final Image image : images) {
+                completionService.submit(new Callable<Image>() {
+                    @Override
+                    public Image call() {
+                        // Don't bother starting to decode an image of a theme which is no longer wanted.
+                        if (!isCurrentGeneration(generation)) return null;
+                        return loadImage(context, image, generation) == null ? null : image;
+                    }
+                });
+            }
+
+            final int max = images.size();
+            for (int i = 1; i <= max; i++) {
+                Image image = completionService.take().get();
+                if (image == null || !isCurrentGeneration(generation)) {
+                    Log.v(TAG, "cacheImagesInParallel: aborting after " + (i - 1) + "/" + max + " images");
+                    return false;
+                }
+                notifyImageLoaded(uiHandler, listener, image, i, max);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Log.w(TAG, "cacheImagesInParallel: interrupted", e);
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            Log.w(TAG, "cacheImagesInParallel: couldn't load an image", e.getCause());
+            return false;
+        } finally {
+            // Cancel the decodes which didn't start yet.  The ones in progress will see that they
+            // are no longer wanted, if we're aborting.
+            executor.shutdownNow();
+        }
+    }
+
+    private static void notifyImageLoaded(Handler uiHandler, final ImageCacheListener listener, final Image image, final int progress, final int max) {
+        uiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onImageLoaded(image, progress, max);
+            }
+        });
+    }
+
+    private boolean isCurrentGeneration(int generation) {
+        synchronized (mImageCache) {
+            return generation == mGeneration;
+        }
+    }
+
     public void clearImageCache() {
-        Log.v(TAG, "clearImageCache");
+        Log.v(TAG, "clearImageCache: " + getStats());
 
-        for (Bitmap bitmap : mImageCache.values()) {
-            if (!bitmap.isRecycled()) bitmap.recycle();
+        synchronized (mImageCache) {
+            releaseAll();
         }
-        mImageCache.clear();
         System.gc();
 
     }
 
+    private void releaseAll() {
+        // Other caches may still be using these bitmaps: we just release our references.
+        for (CachedImage cachedImage : mImageCache.values()) {
+            release(cachedImage, false);
+        }
+        mImageCache.clear();
+        mSizeBytes = 0;
+        mGeneration++;
+    }
+
     /**
      * Find the Android image for the given nounours image.
      */
     public Bitmap getDrawableImage(Context context, final Image image) {
-        Bitmap res = mImageCache.get(image.getId());
+        return getDrawableImage(context, null, image);
+    }
+
+    /**
+     * Find the Android image for the given nounours image, unless this cache has switched to
+     * another theme.
+     *
+     * @param themeId the theme of the image, or null to skip this check.
+     */
+    Bitmap getDrawableImage(Context context, String themeId, final Image image) {
+        Bitmap res = null;
+        final int generation;
+        synchronized (mImageCache) {
+            if (themeId != null && !themeId.equals(mThemeId)) return null;
+            generation = mGeneration;
+            CachedImage cachedImage = mImageCache.get(image.getId());
+            if (cachedImage == null) {
+                mMissCount++;
+            } else {
+                mHitCount++;
+                res = cachedImage.bitmap;
+            }
+        }
         if (res == null) {
             Log.v(TAG, "Loading drawable image " + image);
-            res = loadImage(context, image);
+            res = loadImage(context, image, generation);
         }
         return res;
     }
 
+    public int getHitCount() {
+        synchronized (mImageCache) {
+            return mHitCount;
+        }
+    }
+
+    public int getMissCount() {
+        synchronized (mImageCache) {
+            return mMissCount;
+        }
+    }
+
+    public int getEvictionCount() {
+        synchronized (mImageCache) {
+            return mEvictionCount;
+        }
+    }
+
+    /**
+     * @return the total size, in bytes, of the bitmaps currently in the cache.
+     */
+    public long getSize() {
+        synchronized (mImageCache) {
+            return mSizeBytes;
+        }
+    }
+
+    public String getStats() {
+        synchronized (mImageCache) {
+            return "size=" + mSizeBytes + "/" + mMaxSizeBytes
+                    + ", hits=" + mHitCount
+                    + ", misses=" + mMissCount
+                    + ", evictions=" + mEvictionCount;
+        }
+    }
 
     /**
      * Load an image from the disk into memory. Return the Drawable for the
      * image.
+     * <p/>
+     * If the cache was cleared before or while the image was loading, null is returned: the image
+     * may belong to the previous theme.
      */
-    private Bitmap loadImage(Context context, final Image image) {
+    private Bitmap loadImage(Context context, final Image image, int generation) {
         Log.v(TAG, "Loading " + image + " into memory");
-        Bitmap result = BitmapUtil.createBitmap(context, image);
-        if (result != null) mImageCache.put(image.getId(), result);
+        final ImageStore.Key key;
+        synchronized (mImageCache) {
+            if (generation != mGeneration) return null;
+            key = new ImageStore.Key(mThemeId, image.getId(), BitmapUtil.getDecodeConfig(image, mPreferRgb565), mTargetWidth, mTargetHeight);
+        }
+        Bitmap result = mImageStore.acquire(context, key, image);
+        if (result != null) {
+            synchronized (mImageCache) {
+                if (generation != mGeneration) {
+                    // The theme or the target size changed while we were decoding: this bitmap is stale.
+                    mImageStore.release(key);
+                    return null;
+                }
+                CachedImage cachedImage = new CachedImage(key, result);
+                CachedImage previous = mImageCache.put(image.getId(), cachedImage);
+                if (previous != null) {
+                    mSizeBytes -= previous.byteCount;
+                    // Whoever fetched it may still be drawing it, on another thread than the listener's.
+                    release(previous, false);
+                }
+                mSizeBytes += cachedImage.byteCount;
+                trimToSize();
+            }
+        }
         return result;
     }
 
+    /**
+     * Evict the least recently used images until we're within our budget.  The image which was
+     * just added is never evicted, even if it doesn't fit in the budget by itself.
+     * <p/>
+     * The evicted bitmaps are only released from the {@link ImageStore}, never recycled: they may
+     * still be drawn by the caller which just fetched them.
+     */
+    private void trimToSize() {
+        if (mMaxSizeBytes <= 0) return;
+        Iterator<Map.Entry<String, CachedImage>> iterator = mImageCache.entrySet().iterator();
+        while (mSizeBytes > mMaxSizeBytes && mImageCache.size() > 1) {
+            Map.Entry<String, CachedImage> eldest = iterator.next();
+            mSizeBytes -= eldest.getValue().byteCount;
+            release(eldest.getValue(), true);
+            iterator.remove();
+            mEvictionCount++;
+            Log.v(TAG, "Evicted " + eldest.getKey() + ": " + getStats());
+        }
+    }
+
+    /**
+     * @param canBeReused true if the bitmap was evicted, and may be reused once the listener
+     *                    confirms that it's no longer drawn.
+     */
+    private void release(CachedImage cachedImage, boolean canBeReused) {
+        if (mImageReleaseListener == null) {
+            mImageStore.release(cachedImage.key);
+        } else {
+            mImageStore.release(cachedImage.key, canBeReused);
+            mImageReleaseListener.onImageReleased(cachedImage.bitmap, canBeReused);
+        }
+    }
+
+    private static final class CachedImage {
+        private final ImageStore.Key key;
+        private final Bitmap bitmap;
+        private final int byteCount;
+
+        private CachedImage(ImageStore.Key key, Bitmap bitmap) {
+            this.key = key;
+            this.bitmap = bitmap;
+            this.byteCount = BitmapCompat.getByteCount(bitmap);
+        }
+    }
 
 }
@@ -0,0 +1,246 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.nounours.android.common.nounours.cache;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import ca.rmen.nounours.android.common.Constants;
+import ca.rmen.nounours.android.common.util.BitmapUtil;
+import ca.rmen.nounours.data.Image;
+
+/**
+ * Process-wide store of decoded images.
+ * <p/>
+ * The app, the live wallpaper, the dream and the watch face each have their own {@link ImageCache},
+ * but when they show the same theme, they share the same bitmaps through this store.
+ * <p/>
+ * Bitmaps are reference-counted: an {@link ImageCache} acquires each image it caches once, and
+ * releases it when it evicts it or when it is cleared.  The store forgets a bitmap when its last
+ * reference is released.
+ * <p/>
+ * A forgotten bitmap is never recycled, but it may be reused to decode another image of the same
+ * size: the store keeps a few of them for that.  As the engine which released a bitmap may still be
+ * drawing it, a bitmap is only reused if each of its releases was confirmed, with
+ * {@link #confirmReleased(Bitmap)}, once it was no longer drawn.  The other bitmaps are left to the
+ * garbage collector.
+ */
+final class ImageStore implements BitmapUtil.BitmapPool {
+    private static final String TAG = Constants.TAG + ImageStore.class.getSimpleName();
+
+    // Enough to decode the next images of an animation into the ones which were just evicted.
+    private static final int MAX_REUSABLE_BITMAPS = 3;
+
+    private static final ImageStore INSTANCE = new ImageStore();
+
+    private final Map<Key, Entry> mEntries = new HashMap<>();
+    private final List<Bitmap> mReusableBitmaps = new ArrayList<>();
+    private int mReusePauseCount;
+
+    static ImageStore getInstance() {
+        return INSTANCE;
+    }
+
+    private ImageStore() {
+        // use getInstance()
+    }
+
+    /**
+     * @return the bitmap for the given image, decoding it if no other cache has it already.
+     * The caller must call {@link #release(Key)} or {@link #release(Key, boolean)} when it no
+     * longer needs the bitmap.
+     */
+    Bitmap acquire(Context context, Key key, Image image) {
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(key);
+            if (entry != null) {
+                entry.refCount++;
+                Log.v(TAG, "acquire " + key + ": shared, refCount = " + entry.refCount);
+                return entry.bitmap;
+            }
+        }
+        // Decode outside of the lock, so that one cache decoding an image doesn't block the others.
+        Bitmap bitmap = BitmapUtil.createBitmap(context, image, key.mConfig, key.mTargetWidth, key.mTargetHeight, this);
+        if (bitmap == null) return null;
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(key);
+            // Another cache may have decoded the same image in the meantime. If so, we use its bitmap.
+            if (entry == null) {
+                entry = new Entry(bitmap);
+                mEntries.put(key, entry);
+            }
+            entry.refCount++;
+            Log.v(TAG, "acquire " + key + ": refCount = " + entry.refCount);
+            return entry.bitmap;
+        }
+    }
+
+    /**
+     * Release a bitmap which will never be reused to decode another image.
+     */
+    void release(Key key) {
+        release(key, false);
+    }
+
+    /**
+     * @param willConfirm true if the caller will call {@link #confirmReleased(Bitmap)} once it
+     *                    no longer draws the bitmap.  If false, the bitmap will never be reused.
+     */
+    void release(Key key, boolean willConfirm) {
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(key);
+            if (entry == null) return;
+            entry.refCount--;
+            if (willConfirm) entry.unconfirmedReleaseCount++;
+            else entry.isReusable = false;
+            removeIfUnused(key, entry);
+        }
+    }
+
+    /**
+     * Confirm that the caller, which released the given bitmap with
+     * {@link #release(Key, boolean)}, no longer draws it.
+     */
+    void confirmReleased(Bitmap bitmap) {
+        synchronized (mEntries) {
+            for (Map.Entry<Key, Entry> storeEntry : mEntries.entrySet()) {
+                Entry entry = storeEntry.getValue();
+                if (entry.bitmap == bitmap) {
+                    entry.unconfirmedReleaseCount--;
+                    removeIfUnused(storeEntry.getKey(), entry);
+                    return;
+                }
+            }
+        }
+    }
+
+    private void removeIfUnused(Key key, Entry entry) {
+        if (entry.refCount > 0 || entry.unconfirmedReleaseCount > 0) return;
+        mEntries.remove(key);
+        Log.v(TAG, "release " + key + ": removed from the store, reusable: " + entry.isReusable);
+        if (entry.isReusable) {
+            if (mReusableBitmaps.size() >= MAX_REUSABLE_BITMAPS) mReusableBitmaps.remove(0);
+            mReusableBitmaps.add(entry.bitmap);
+        }
+    }
+
+    /**
+     * Don't reuse any bitmap until {@link #resumeReuse()} is called.  This is for the callers
+     * which read the bitmaps of a cache outside of the engine's drawing, and so can't confirm
+     * their releases.
+     */
+    void pauseReuse() {
+        synchronized (mEntries) {
+            mReusePauseCount++;
+        }
+    }
+
+    void resumeReuse() {
+        synchronized (mEntries) {
+            mReusePauseCount--;
+        }
+    }
+
+    @Override
+    public Bitmap take(int width, int height, Bitmap.Config config) {
+        synchronized (mEntries) {
+            if (mReusePauseCount > 0) return null;
+            for (Iterator<Bitmap> iterator = mReusableBitmaps.iterator(); iterator.hasNext(); ) {
+                Bitmap bitmap = iterator.next();
+                if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config) {
+                    iterator.remove();
+                    return bitmap;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Identifies a decoded image.  The same image file decoded with a different config, or for
+     * a different target size, is a different bitmap.
+     */
+    static final class Key {
+        private final String mThemeId;
+        private final String mImageId;
+        private final Bitmap.Config mConfig;
+        private final int mTargetWidth;
+        private final int mTargetHeight;
+
+        Key(String themeId, String imageId, Bitmap.Config config, int targetWidth, int targetHeight) {
+            mThemeId = themeId;
+            mImageId = imageId;
+            mConfig = config;
+            mTargetWidth = targetWidth;
+            mTargetHeight = targetHeight;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key other = (Key) o;
+            return equals(mThemeId, other.mThemeId)
+                    && equals(mImageId, other.mImageId)
+                    && mConfig == other.mConfig
+                    && mTargetWidth == other.mTargetWidth
+                    && mTargetHeight == other.mTargetHeight;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mThemeId != null ? mThemeId.hashCode() : 0;
+            result = 31 * result + (mImageId != null ? mImageId.hashCode() : 0);
+            result = 31 * result + (mConfig != null ? mConfig.hashCode() : 0);
+            result = 31 * result + mTargetWidth;
+            result = 31 * result + mTargetHeight;
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return mThemeId + "/" + mImageId + "/" + mConfig + "/" + mTargetWidth + "x" + mTargetHeight;
+        }
+
+        private static boolean equals(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    private static final class Entry {
+        private final Bitmap bitmap;
+        private int refCount;
+        // Releases which the caller hasn't yet confirmed with confirmReleased().
+        private int unconfirmedReleaseCount;
+        // Only mutable bitmaps can be decoded into.
+        private boolean isReusable;
+
+        private Entry(Bitmap bitmap) {
+            this.bitmap = bitmap;
+            this.isReusable = bitmap.isMutable();
+        }
+    }
+}
@@ -20,11 +20,21 @@ package ca.rmen.nounours.android.common.nounours.cache;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.RectF;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 import ca.rmen.nounours.android.common.Constants;
 import ca.rmen.nounours.android.common.settings.NounoursSettings;
+import ca.rmen.nounours.data.Animation;
+import ca.rmen.nounours.data.AnimationImage;
 import ca.rmen.nounours.data.Image;
 import ca.rmen.nounours.data.Theme;
 
@@ -41,6 +51,11 @@ public class NounoursResourceCache {
 
     private final ImageCache mImageCache;
     private final SoundCache mSoundCache;
+    private final FrameDiffCache mFrameDiffCache = new FrameDiffCache();
+    // The theme whose images are loaded, once its first tier is loaded.
+    private volatile Theme mTheme;
+    private int mSurfaceWidth;
+    private int mSurfaceHeight;
 
 
     public NounoursResourceCache(Context context,
@@ -58,20 +73,164 @@ public class NounoursResourceCache {
         this(context, settings, imageCache, null);
     }
 
-    public boolean loadImages(Theme theme, ImageCache.ImageCacheListener imageCacheListener) {
+    /**
+     * Load the images of the theme, by priority:
+     * <ol>
+     * <li>the default image,</li>
+     * <li>the images adjacent to the default image,</li>
+     * <li>the images of the animations,</li>
+     * <li>the remaining images (the orientation images, mostly).</li>
+     * </ol>
+     * Only the first tier is loaded before this method returns, so that nounours can be displayed
+     * and used as soon as possible.  The other tiers are loaded in a background thread.  An image
+     * which is needed before it's loaded is simply loaded on demand.
+     * <p/>
+     * Once all the images are loaded, the differences between consecutive animation images are
+     * computed, for {@link #getChangedArea(Image, Image)}.
+     * <p/>
+     * If the images are released later because the surface grew, they are all loaded again in the
+     * background.
+     *
+     * @param imageCacheListener notified about the images of the first tier only.
+     */
+    public boolean loadImages(final Theme theme, ImageCache.ImageCacheListener imageCacheListener) {
         Log.v(TAG, "loadImages, theme = " + theme);
-        return mImageCache.cacheImages(mContext, theme.getImages().values(), mUiHandler, imageCacheListener);
+        final long startTime = SystemClock.uptimeMillis();
+        final List<Collection<Image>> tiers = getImageTiers(theme);
+        mTheme = null;
+        mFrameDiffCache.clear();
+        mImageCache.useTheme(theme.getId());
+        updateDecodeOptions();
+        if (!mImageCache.cacheImages(mContext, tiers.get(0), mUiHandler, imageCacheListener)) return false;
+        Log.i(TAG, "Theme " + theme.getId() + ": time to first frame: " + (SystemClock.uptimeMillis() - startTime) + "ms");
+        mTheme = theme;
+        loadImagesInBackground(theme, tiers, 1, startTime);
+        return true;
+    }
+
+    /**
+     * Load the given tiers of images in a background thread, then compute the differences between
+     * the animation images.
+     */
+    private void loadImagesInBackground(final Theme theme, final List<Collection<Image>> tiers, final int firstTier, final long startTime) {
+        Thread backgroundLoader = new Thread() {
+            @Override
+            public void run() {
+                for (int i = firstTier; i < tiers.size(); i++) {
+                    // Stop if the theme changes, or if we couldn't load an image.  Any image we
+                    // didn't load will be loaded when it needs to be displayed.
+                    if (!mImageCache.cacheImages(mContext, theme.getId(), tiers.get(i), mUiHandler, SILENT_IMAGE_CACHE_LISTENER)) {
+                        Log.v(TAG, "Theme " + theme.getId() + ": stopped loading images at tier " + (i + 1));
+                        return;
+                    }
+                }
+                Log.i(TAG, "Theme " + theme.getId() + ": time to fully loaded: " + (SystemClock.uptimeMillis() - startTime) + "ms");
+                mFrameDiffCache.compute(mContext, theme, mImageCache);
+            }
+        };
+        backgroundLoader.setPriority(Thread.MIN_PRIORITY);
+        backgroundLoader.start();
+    }
+
+    /**
+     * @return the number of images loaded before nounours is ready to be used.
+     */
+    public static int getInitialImageCount(Theme theme) {
+        return getImageTiers(theme).get(0).size();
+    }
+
+    /**
+     * @return the images of the theme, grouped by loading priority. Each image appears only once,
+     * in the first group which needs it.
+     */
+    private static List<Collection<Image>> getImageTiers(Theme theme) {
+        Set<Image> loadedImages = new LinkedHashSet<>();
+
+        Set<Image> defaultImages = new LinkedHashSet<>();
+        Image defaultImage = theme.getDefaultImage();
+        if (defaultImage != null) defaultImages.add(defaultImage);
+        loadedImages.addAll(defaultImages);
+
+        Set<Image> adjacentImages = new LinkedHashSet<>();
+        if (defaultImage != null) adjacentImages.addAll(defaultImage.getAllAdjacentImages());
+        adjacentImages.removeAll(loadedImages);
+        loadedImages.addAll(adjacentImages);
+
+        Set<Image> animationImages = new LinkedHashSet<>();
+        for (Animation animation : theme.getAnimations().values()) {
+            for (AnimationImage animationImage : animation.getImages()) {
+                animationImages.add(animationImage.getImage());
+            }
+        }
+        animationImages.removeAll(loadedImages);
+        loadedImages.addAll(animationImages);
+
+        Set<Image> otherImages = new LinkedHashSet<>(theme.getImages().values());
+        otherImages.removeAll(loadedImages);
+
+        List<Collection<Image>> tiers = new ArrayList<>();
+        tiers.add(defaultImages);
+        tiers.add(adjacentImages);
+        tiers.add(animationImages);
+        tiers.add(otherImages);
+        return tiers;
+    }
+
+    /**
+     * @see ImageCache#setImageReleaseListener(ImageCache.ImageReleaseListener)
+     */
+    public void setImageReleaseListener(ImageCache.ImageReleaseListener listener) {
+        mImageCache.setImageReleaseListener(listener);
+    }
+
+    /**
+     * @see ImageCache#onImageNoLongerDrawn(Bitmap)
+     */
+    public void onImageNoLongerDrawn(Bitmap bitmap) {
+        mImageCache.onImageNoLongerDrawn(bitmap);
     }
 
     public Bitmap getDrawableImage(Context context, Image image) {
+        // The grayscale and dim settings may have changed since the last image.
+        updateDecodeOptions();
         return mImageCache.getDrawableImage(context, image);
     }
 
+    /**
+     * Images will be displayed in a surface of this size.
+     */
+    public void setSurfaceSize(int width, int height) {
+        Log.v(TAG, "setSurfaceSize " + width + "x" + height);
+        mSurfaceWidth = width;
+        mSurfaceHeight = height;
+        updateDecodeOptions();
+    }
+
+    private void updateDecodeOptions() {
+        boolean releasedImages = mImageCache.setDecodeOptions(mSurfaceWidth, mSurfaceHeight, mSettings.isGrayscale() || mSettings.isImageDimmed());
+        Theme theme = mTheme;
+        if (releasedImages && theme != null) {
+            // The images were decoded for a smaller surface.  This also aborted their preload.
+            Log.v(TAG, "Theme " + theme.getId() + ": loading the images again for the new surface size");
+            loadImagesInBackground(theme, getImageTiers(theme), 0, SystemClock.uptimeMillis());
+        }
+    }
+
     public void freeImages() {
         Log.v(TAG, "freeImages");
+        mTheme = null;
+        mFrameDiffCache.clear();
         mImageCache.clearImageCache();
     }
 
+    /**
+     * @return the area which differs between two consecutive images of an animation, as fractions
+     * of the image size, or null if we don't know.
+     */
+    public RectF getChangedArea(Image from, Image to) {
+        return mFrameDiffCache.getChangedArea(from, to);
+    }
+
     public boolean loadSounds(Theme theme) {
         Log.v(TAG, "loadSounds, theme = " + theme);
         if (mSoundCache != null && mSettings.isSoundEnabled()) mSoundCache.cacheSounds(theme);
@@ -83,4 +242,11 @@ public class NounoursResourceCache {
         if (mSoundCache != null) mSoundCache.clearSoundCache();
     }
 
+    private static final ImageCache.ImageCacheListener SILENT_IMAGE_CACHE_LISTENER = new ImageCache.ImageCacheListener() {
+        @Override
+        public void onImageLoaded(Image image, int progress, int total) {
+            // Nounours is already usable, we don't show the progress of the background loading.
+        }
+    };
+
 }
@@ -26,6 +26,7 @@ import android.util.Log;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Locale;
 
 import ca.rmen.nounours.android.common.Constants;
 import ca.rmen.nounours.android.common.compat.BitmapCompat;
@@ -34,59 +35,123 @@ import ca.rmen.nounours.data.Image;
 public class BitmapUtil {
     private static final String TAG = Constants.TAG + BitmapUtil.class.getSimpleName();
 
-    private static final int BITMAP_LOAD_RETRIES = 3;
-    private static final int BITMAP_INITIAL_SUB_SAMPLE = 0;
+    /**
+     * Provides bitmaps which are no longer used, and which can be reused to decode new images.
+     */
+    public interface BitmapPool {
+        /**
+         * @return a bitmap with the given size and config, which may be overwritten, or null if
+         * there is none.
+         */
+        Bitmap take(int width, int height, Bitmap.Config config);
+    }
 
     public static Bitmap createBitmap(Context context, Image image) {
-        final Bitmap result;
+        return createBitmap(context, image, getDecodeConfig(image, false), 0, 0, null);
+    }
+
+    /**
+     * Decode an image:
+     * <ul>
+     * <li>The size of the image is read first, without decoding it.</li>
+     * <li>The image is subsampled if it's at least twice as big as needed to fit in the target
+     * size.</li>
+     * <li>If the pool has a bitmap with the same dimensions, the image is decoded into it.</li>
+     * </ul>
+     *
+     * @param targetWidth  the width of the surface the image will be displayed in, or 0 to decode
+     *                     the image in its full size.
+     * @param targetHeight the height of the surface the image will be displayed in, or 0 to decode
+     *                     the image in its full size.
+     * @param pool         bitmaps which may be reused. May be null.
+     * @return null if the image couldn't be decoded.
+     */
+    public static Bitmap createBitmap(Context context, Image image, Bitmap.Config config, int targetWidth, int targetHeight, BitmapPool pool) {
+        BitmapFactory.Options options = BitmapCompat.createBitmapFactoryOptions(config);
+        try {
+            options.inJustDecodeBounds = true;
+            decode(context, image, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                Log.w(TAG, "Couldn't read the size of " + image);
+                return null;
+            }
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = getSampleSize(options.outWidth, options.outHeight, targetWidth, targetHeight);
+
+            // We only know the exact size of the decoded image if it's not subsampled.
+            boolean reusingBitmap = false;
+            if (pool != null && options.inSampleSize == 1) {
+                reusingBitmap = BitmapCompat.setInBitmap(options, pool.take(options.outWidth, options.outHeight, config));
+            }
+            Log.v(TAG, "Decode " + image + ": " + options.outWidth + "x" + options.outHeight
+                    + ", sample size = " + options.inSampleSize + ", config = " + config + ", reusing bitmap = " + reusingBitmap);
+            try {
+                return decode(context, image, options);
+            } catch (IllegalArgumentException e) {
+                if (!reusingBitmap) throw e;
+                Log.v(TAG, "Couldn't reuse a bitmap for " + image + ": " + e.getMessage());
+                BitmapCompat.setInBitmap(options, null);
+                return decode(context, image, options);
+            }
+        } catch (IOException e) {
+            Log.v(TAG, "Couldn't load image: " + e.getMessage(), e);
+            return null;
+        } catch (OutOfMemoryError e) {
+            Log.w(TAG, "Not enough memory to load image " + image, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the config with which {@link #createBitmap(Context, Image)} decodes the given image.
+     * @param preferRgb565 if true, opaque themed images are decoded with the cheaper RGB_565
+     *                     config.  This is only worth it when the images are displayed in
+     *                     grayscale or dimmed, where the loss of color precision isn't visible.
+     */
+    public static Bitmap.Config getDecodeConfig(Image image, boolean preferRgb565) {
+        // The default images, bundled in the apk, have always been decoded in RGB_565.
+        if (!isThemedImage(image)) return Bitmap.Config.RGB_565;
+        if (preferRgb565 && isJpeg(image)) return Bitmap.Config.RGB_565;
+        return Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * @return the largest power of two by which we can divide the size of an image, so that it
+     * still fills the target size when it's scaled to fit in it.
+     */
+    private static int getSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        if (targetWidth <= 0 || targetHeight <= 0) return 1;
+        float scale = Math.min((float) targetWidth / width, (float) targetHeight / height);
+        int sampleSize = 1;
+        while (sampleSize * 2 * scale <= 1) sampleSize *= 2;
+        return sampleSize;
+    }
+
+    private static Bitmap decode(Context context, Image image, BitmapFactory.Options options) throws IOException {
         // This is one of the themed images, in the assets.
-        if(image.getFilename().startsWith("themes")) {
-            Log.v(TAG, "Load themed image.");
-            result = loadBitmap(context, image.getFilename());
+        if (isThemedImage(image)) {
+            InputStream assetStream = context.getAssets().open(image.getFilename());
+            try {
+                return BitmapFactory.decodeStream(assetStream, null, options);
+            } finally {
+                assetStream.close();
+            }
         }
         // This is one of the default images bundled in the apk.
         else {
             final int imageResId = context.getResources().getIdentifier(image.getFilename(), "drawable",
                     context.getClass().getPackage().getName());
-            // Load the image from the resource file.
-            Log.v(TAG, "Load default image " + imageResId);
-            result = loadBitmap(context, imageResId);
+            return BitmapFactory.decodeResource(context.getResources(), imageResId, options);
         }
-        return result;
-    }
-
-    private static Bitmap loadBitmap(Context context, String assetPath) {
-        return loadBitmap(context, assetPath, 0, BITMAP_INITIAL_SUB_SAMPLE, BITMAP_LOAD_RETRIES);
     }
 
-    private static Bitmap loadBitmap(Context context, int resourceId) {
-        return loadBitmap(context, null, resourceId, BITMAP_INITIAL_SUB_SAMPLE, BITMAP_LOAD_RETRIES);
+    private static boolean isThemedImage(Image image) {
+        return image.getFilename().startsWith("themes");
     }
 
-    private static Bitmap loadBitmap(Context context, String assetPath, int resourceId, int initialSubSample, int retries) {
-        int inSampleSize = BITMAP_LOAD_RETRIES - retries + initialSubSample;
-        BitmapFactory.Options options = BitmapCompat.createBitmapFactoryOptions(inSampleSize);
-        try {
-            Log.v(TAG, "Load image " + (assetPath == null ? "" + resourceId : assetPath) + ".  "
-                    + retries + " left.  Sample size = " + options.inSampleSize);
-
-            if (assetPath != null) {
-                InputStream assetStream = context.getAssets().open(assetPath);
-                Bitmap result = BitmapFactory.decodeStream(assetStream);
-                assetStream.close();
-                return result;
-            }
-            else
-                return BitmapFactory.decodeResource(context.getResources(), resourceId, options);
-        } catch (OutOfMemoryError e) {
-            System.gc();
-            if (retries > 0)
-                return loadBitmap(context, assetPath, resourceId, initialSubSample, retries - 1);
-        } catch (IOException e) {
-            Log.v(TAG, "Couldn't load image: " + e.getMessage(), e);
-            return null;
-        }
-        return null;
+    private static boolean isJpeg(Image image) {
+        String filename = image.getFilename().toLowerCase(Locale.US);
+        return filename.endsWith(".jpg") || filename.endsWith(".jpeg");
     }
 
 }
@@ -0,0 +1,58 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.rmen.nounours.android.common.test;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Counts the bytes allocated by the current thread since the counter was started.
+ * <p/>
+ * The unit tests of all the modules include this folder: see the test source sets in their build.gradle.
+ */
+public final class AllocationCounter {
+
+    private final long mMeasurementOverhead;
+    private final long mStart;
+
+    private AllocationCounter() {
+        long before = getThreadAllocatedBytes();
+        mMeasurementOverhead = getThreadAllocatedBytes() - before;
+        mStart = getThreadAllocatedBytes();
+    }
+
+    /**
+     * @return a counter, started now.  Nothing else is allocated until its next call.
+     */
+    public static AllocationCounter start() {
+        return new AllocationCounter();
+    }
+
+    /**
+     * @return the bytes allocated by the current thread since {@link #start()}.
+     */
+    public long getAllocatedBytes() {
+        return getThreadAllocatedBytes() - mStart - mMeasurementOverhead;
+    }
+
+    private static long getThreadAllocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.rmen.nounours.android.common.nounours;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import ca.rmen.nounours.android.common.settings.NounoursSettings;
+import ca.rmen.nounours.android.common.test.AllocationCounter;
+
+/**
+ * Renders frames in a loop, and checks that no memory is allocated once the frames are cached,
+ * or when they don't all fit in the cache.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21)
+public class NounoursRendererAllocationTest {
+
+    private static final int VIEW_WIDTH = 480;
+    private static final int VIEW_HEIGHT = 800;
+    private static final int WARMUP_FRAMES = 10000;
+    private static final int MEASURED_FRAMES = 10000;
+
+    @Test
+    public void testRenderDoesNotAllocate() {
+        testRenderDoesNotAllocateImpl(false, false);
+    }
+
+    @Test
+    public void testRenderGrayscaleDimmedDoesNotAllocate() {
+        testRenderDoesNotAllocateImpl(true, true);
+    }
+
+    @Test
+    public void testRenderCacheMissDoesNotAllocate() {
+        // Only two of the three frames fit in the cache: the third one is always drawn directly.
+        long frameBytes = VIEW_WIDTH * VIEW_HEIGHT * 4;
+        testRenderDoesNotAllocateImpl(new NounoursRenderer(2 * frameBytes), false, false);
+    }
+
+    private void testRenderDoesNotAllocateImpl(boolean isGrayscale, boolean isImageDimmed) {
+        testRenderDoesNotAllocateImpl(new NounoursRenderer(), isGrayscale, isImageDimmed);
+    }
+
+    private void testRenderDoesNotAllocateImpl(NounoursRenderer renderer, boolean isGrayscale, boolean isImageDimmed) {
+        NounoursSettings settings = new TestSettings(isGrayscale, isImageDimmed);
+        Canvas canvas = new NoOpCanvas();
+        Bitmap[] bitmaps = new Bitmap[3];
+        for (int i = 0; i < bitmaps.length; i++) {
+            bitmaps[i] = Bitmap.createBitmap(320, 480, Bitmap.Config.ARGB_8888);
+        }
+
+        // Fill the frame cache, and give the JIT a chance to compile the render path.
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            renderer.render(settings, bitmaps[i % bitmaps.length], canvas, VIEW_WIDTH, VIEW_HEIGHT);
+        }
+
+        AllocationCounter allocationCounter = AllocationCounter.start();
+        for (int i = 0; i < MEASURED_FRAMES; i++) {
+            renderer.render(settings, bitmaps[i % bitmaps.length], canvas, VIEW_WIDTH, VIEW_HEIGHT);
+        }
+        long allocatedBytes = allocationCounter.getAllocatedBytes();
+        Assert.assertEquals("Bytes allocated in " + MEASURED_FRAMES + " frames", 0, allocatedBytes);
+    }
+
+    /**
+     * Doesn't draw anything, so that we only measure the allocations of the renderer.
+     */
+    private static class NoOpCanvas extends Canvas {
+        @Override
+        public void drawColor(int color) {
+        }
+
+        @Override
+        public void drawBitmap(Bitmap bitmap, float left, float top, Paint paint) {
+        }
+
+        @Override
+        public void setMatrix(Matrix matrix) {
+        }
+
+        @Override
+        public void concat(Matrix matrix) {
+        }
+
+        @Override
+        public int save() {
+            return 1;
+        }
+
+        @Override
+        public void restore() {
+        }
+    }
+
+    private static class TestSettings implements NounoursSettings {
+        private final boolean mIsGrayscale;
+        private final boolean mIsImageDimmed;
+
+        TestSettings(boolean isGrayscale, boolean isImageDimmed) {
+            mIsGrayscale = isGrayscale;
+            mIsImageDimmed = isImageDimmed;
+        }
+
+        @Override
+        public boolean isSoundEnabled() {
+            return false;
+        }
+
+        @Override
+        public void setEnableSound(boolean enabled) {
+        }
+
+        @Override
+        public boolean isImageDimmed() {
+            return mIsImageDimmed;
+        }
+
+        @Override
+        public boolean isGrayscale() {
+            return mIsGrayscale;
+        }
+
+        @Override
+        public long getIdleTimeout() {
+            return 0;
+        }
+
+        @Override
+        public String getThemeId() {
+            return "0";
+        }
+
+        @Override
+        public int getBackgroundColor() {
+            return 0xff336699;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.rmen.nounours.android.common.nounours.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Computes the changed area between consecutive images of the animations of a theme.
+ */
+public class FrameDiffCacheTest {
+
+    // Consecutive images of the "headbang" and "spin" animations of theme 5002.
+    private static final String[][] CONSECUTIVE_IMAGES = {
+            {"defaultimg_sm.jpg", "headdown1_sm.jpg"},
+            {"headdown1_sm.jpg", "headdown2_sm.jpg"},
+            {"rotate730_sm.jpg", "rotate900_sm.jpg"},
+    };
+
+    @Test
+    public void testChangedAreaIsSmallerThanFrame() throws IOException {
+        for (String[] images : CONSECUTIVE_IMAGES) {
+            BufferedImage from = readImage(images[0]);
+            BufferedImage to = readImage(images[1]);
+            int[] bounds = getChangedBounds(from, to);
+            int frameArea = from.getWidth() * from.getHeight();
+            int changedArea = (bounds[2] - bounds[0] + 1) * (bounds[3] - bounds[1] + 1);
+            String message = images[0] + " -> " + images[1] + ": " + changedArea + "/" + frameArea;
+            Assert.assertTrue(message, bounds[2] >= 0);
+            Assert.assertTrue(message, changedArea < frameArea * 0.8);
+        }
+    }
+
+    @Test
+    public void testSameImageHasNoChangedArea() throws IOException {
+        BufferedImage from = readImage("defaultimg_sm.jpg");
+        int[] bounds = getChangedBounds(from, copy(from));
+        Assert.assertEquals(-1, bounds[2]);
+    }
+
+    @Test
+    public void testSmallChangesAreNotIgnored() throws IOException {
+        // Ignoring them would leave them on the surface, where they would add up from one image to the next.
+        BufferedImage from = readImage("defaultimg_sm.jpg");
+        BufferedImage to = copy(from);
+        int x = from.getWidth() / 3;
+        int y = from.getHeight() / 4;
+        to.setRGB(x, y, from.getRGB(x, y) ^ 1);
+        int[] bounds = getChangedBounds(from, to);
+        Assert.assertArrayEquals(new int[]{x, y, x, y}, bounds);
+    }
+
+    private static BufferedImage copy(BufferedImage image) {
+        BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                result.setRGB(x, y, image.getRGB(x, y));
+            }
+        }
+        return result;
+    }
+
+    private static int[] getChangedBounds(BufferedImage from, BufferedImage to) {
+        int width = from.getWidth();
+        int height = from.getHeight();
+        Assert.assertEquals(width, to.getWidth());
+        Assert.assertEquals(height, to.getHeight());
+        int[] fromRow = new int[width];
+        int[] toRow = new int[width];
+        int[] bounds = new int[4];
+        FrameDiffCache.resetBounds(bounds, width, height);
+        for (int y = 0; y < height; y++) {
+            from.getRGB(0, y, width, 1, fromRow, 0, width);
+            to.getRGB(0, y, width, 1, toRow, 0, width);
+            FrameDiffCache.addChangedPixels(fromRow, toRow, width, y, bounds);
+        }
+        return bounds;
+    }
+
+    private static BufferedImage readImage(String fileName) throws IOException {
+        InputStream is = FrameDiffCacheTest.class.getResourceAsStream("/themes/5002/" + fileName);
+        Assert.assertNotNull(fileName, is);
+        try {
+            return ImageIO.read(is);
+        } finally {
+            is.close();
+        }
+    }
+}
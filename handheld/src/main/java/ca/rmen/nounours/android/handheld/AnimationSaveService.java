@@ -29,7 +29,9 @@ import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.net.Uri;
 import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
+import android.webkit.MimeTypeMap;
 
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
@@ -109,19 +111,34 @@ public class AnimationSaveService extends IntentService {
             notificationManager.notify(SAVING_NOTIFICATION_ID, notification);
         }
 
-        // Save the file
-        File file = AnimationUtil.saveAnimation(this, animation);
+        // Reuse the file if this animation was already saved, or save it.
+        long startTime = SystemClock.elapsedRealtime();
+        File file = AnimationUtil.getCachedAnimation(this, animation);
+        boolean isCacheHit = file != null;
+        SaveProgressNotifier saveProgressNotifier = new SaveProgressNotifier(notificationManager);
+        if (!isCacheHit) {
+            file = AnimationUtil.saveAnimation(this, animation, saveProgressNotifier);
+        }
+        long duration = SystemClock.elapsedRealtime() - startTime;
 
         // Notify based on the save result.
         if (file != null && file.exists()) {
             // Notify that the save is done.
+            // The exporters write one frame per displayed image, not per animation image.
+            int frameCount = saveProgressNotifier.mFramesWritten;
+            float framesPerSecond = frameCount * 1000f / Math.max(duration, 1);
+            Log.v(TAG, isCacheHit ? "Reused the animation file in " + duration + "ms"
+                    : "Saved " + frameCount + " frames in " + duration + "ms: " + framesPerSecond + " frames/s");
+            String content = isCacheHit ?
+                    getString(R.string.notif_save_animation_done_cached)
+                    : getString(R.string.notif_save_animation_done_throughput, frameCount, framesPerSecond);
             Intent shareIntent = getShareIntent(file);
             PendingIntent pendingShareIntent = PendingIntent.getActivity(this, 0, shareIntent, 0);
             notification = NotificationCompat.createNotification(
                     this,
                     iconId,
-                    R.string.notif_save_animation_done,
-                    R.string.notif_save_animation_done,
+                    getString(R.string.notif_save_animation_done),
+                    content,
                     R.drawable.ic_action_share,
                     getString(R.string.share),
                     pendingShareIntent);
@@ -141,6 +158,34 @@ public class AnimationSaveService extends IntentService {
         Log.v(TAG, "end saving animation " + animation);
     }
 
+    /**
+     * Shows the progress of the save in the notification.
+     */
+    private class SaveProgressNotifier implements AnimationUtil.SaveProgressListener {
+        private final NotificationManager mNotificationManager;
+        private int mLastPercent;
+        private int mFramesWritten;
+
+        SaveProgressNotifier(NotificationManager notificationManager) {
+            mNotificationManager = notificationManager;
+        }
+
+        @Override
+        public void onFrameWritten(int framesWritten, int frameCount) {
+            mFramesWritten = framesWritten;
+            int percent = 100 * framesWritten / frameCount;
+            if (percent == mLastPercent) return;
+            mLastPercent = percent;
+            Notification progressNotification = NotificationCompat.createNotification(AnimationSaveService.this,
+                    R.drawable.ic_stat_content_save,
+                    getString(R.string.notif_save_animation_in_progress_title),
+                    getString(R.string.notif_save_animation_progress, percent),
+                    getMainActivityIntent());
+            progressNotification.flags = Notification.FLAG_ONGOING_EVENT;
+            mNotificationManager.notify(SAVING_NOTIFICATION_ID, progressNotification);
+        }
+    }
+
     /**
      * While the saving is in progress, we need a PendingIntent for the notification. We'll
      * just have a PendingIntent which launches the MainActivity.
@@ -160,7 +205,7 @@ public class AnimationSaveService extends IntentService {
         //Uri uri = FileProvider.getUriForFile(this, BuildConfig.APPLICATION_ID + ".fileprovider", file);
         Uri uri = Uri.parse("content://" + BuildConfig.APPLICATION_ID + ".fileprovider/export/" + file.getName());
         sendIntent.putExtra(Intent.EXTRA_STREAM, uri);
-        sendIntent.setType("image/gif");
+        sendIntent.setType(getMimeType(file));
         if (ApiHelper.getAPILevel() < Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
             List<ResolveInfo> resInfoList = getPackageManager().queryIntentActivities(sendIntent, PackageManager.MATCH_DEFAULT_ONLY);
             for (ResolveInfo resolveInfo : resInfoList) {
@@ -171,4 +216,14 @@ public class AnimationSaveService extends IntentService {
         }
         return Intent.createChooser(sendIntent, getString(R.string.share_app_chooser_title));
     }
+
+    /**
+     * @return the mime type of the exported file, from its extension.
+     */
+    private static String getMimeType(File file) {
+        String fileName = file.getName();
+        String extension = fileName.substring(fileName.lastIndexOf('.') + 1);
+        String mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
+        return mimeType == null ? "image/gif" : mimeType;
+    }
 }
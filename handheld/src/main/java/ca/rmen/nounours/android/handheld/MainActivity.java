@@ -26,7 +26,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.hardware.Sensor;
+import android.content.res.Configuration;
 import android.hardware.SensorManager;
 import android.media.AudioManager;
 import android.os.Build;
@@ -66,7 +66,9 @@ import ca.rmen.nounours.android.handheld.nounours.orientation.SensorListener;
 import ca.rmen.nounours.android.handheld.settings.SettingsActivity;
 import ca.rmen.nounours.android.handheld.settings.SharedPreferenceSettings;
 import ca.rmen.nounours.android.handheld.util.AnimationUtil;
+import ca.rmen.nounours.android.handheld.util.RecordingExporter;
 import ca.rmen.nounours.data.Animation;
+import ca.rmen.nounours.data.Image;
 import ca.rmen.nounours.data.Theme;
 
 /**
@@ -84,8 +86,6 @@ public class MainActivity extends Activity {
     private AndroidNounours mNounours;
     private SensorManager mSensorManager;
     private SensorListener mSensorListener;
-    private Sensor mAccelerometerSensor;
-    private Sensor mMagneticFieldSensor;
     private ImageButton mRecordButton;
     private ProgressDialog mProgressDialog;
     private FullScreenMode mFullScreenMode;
@@ -138,10 +138,6 @@ public class MainActivity extends Activity {
                 mListener);
 
         FlingDetector nounoursFlingDetector = new FlingDetector(mNounours);
-        if (mSensorManager != null) {
-            mAccelerometerSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-            mMagneticFieldSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
-        }
 
         final GestureDetector gestureDetector = new GestureDetector(getApplicationContext(), nounoursFlingDetector);
         TouchListener touchListener = new TouchListener(mNounours, gestureDetector);
@@ -189,8 +185,7 @@ public class MainActivity extends Activity {
         mNounours.doPing(true);
         Log.v(TAG, "onResume end");
         if (mSensorManager != null && mSensorListener != null) {
-            mSensorManager.registerListener(mSensorListener, mAccelerometerSensor, SensorManager.SENSOR_DELAY_NORMAL);
-            mSensorManager.registerListener(mSensorListener, mMagneticFieldSensor, SensorManager.SENSOR_DELAY_NORMAL);
+            mSensorListener.registerSensors(mSensorManager);
         }
         LocalBroadcastManager.getInstance(this).registerReceiver(mBroadcastReceiver, new IntentFilter(AnimationSaveService.ACTION_SAVE_ANIMATION));
     }
@@ -207,11 +202,21 @@ public class MainActivity extends Activity {
         mNounours.doPing(false);
         mNounours.stopSound();
         if (mSensorManager != null) {
-            mSensorManager.unregisterListener(mSensorListener);
+            mSensorListener.unregisterSensors(mSensorManager);
         }
         LocalBroadcastManager.getInstance(this).unregisterReceiver(mBroadcastReceiver);
     }
 
+    /**
+     * We handle the orientation changes ourselves: the sensor listener needs to know the new
+     * rotation of the display.
+     */
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        if (mSensorListener != null) mSensorListener.onConfigurationChanged();
+    }
+
 
     /**
      * Create menu items for the different animations.
@@ -338,6 +343,9 @@ public class MainActivity extends Activity {
 
     private void startRecording() {
         AnimationUtil.startAnimation(mRecordButton);
+        // Encode the recording while it's going on, so it can be shared as soon as it stops.
+        RecordingExporter.startRecording(this, mNounours.getCurrentTheme());
+        mNounours.setRecordingListener(mRecordingListener);
         mNounours.getNounoursRecorder().start();
     }
 
@@ -345,6 +353,8 @@ public class MainActivity extends Activity {
         Toast.makeText(this, R.string.notif_save_animation_in_progress_title, Toast.LENGTH_LONG).show();
         AnimationUtil.stopAnimation(mRecordButton);
         Animation animation = mNounours.getNounoursRecorder().stop();
+        mNounours.setRecordingListener(null);
+        RecordingExporter.stopRecording(animation);
         AnimationSaveService.startActionSaveAnimation(this, animation);
     }
 
@@ -395,6 +405,13 @@ public class MainActivity extends Activity {
         }
     };
 
+    private final AndroidNounours.RecordingListener mRecordingListener = new AndroidNounours.RecordingListener() {
+        @Override
+        public void onImageRecorded(Image image) {
+            RecordingExporter.onImageRecorded(image);
+        }
+    };
+
     /**
      * When the user taps on the record button, we stop recording.
      */
@@ -0,0 +1,51 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.nounours.android.handheld.compat;
+
+import android.annotation.TargetApi;
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
+
+@TargetApi(18)
+class Api18Helper {
+    private Api18Helper() {
+        // prevent instantiation
+    }
+
+    static Sensor getSignificantMotionSensor(SensorManager sensorManager) {
+        return sensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+    }
+
+    static Object requestTriggerSensor(SensorManager sensorManager, Sensor sensor, final Runnable onTrigger) {
+        TriggerEventListener listener = new TriggerEventListener() {
+            @Override
+            public void onTrigger(TriggerEvent event) {
+                onTrigger.run();
+            }
+        };
+        if (!sensorManager.requestTriggerSensor(listener, sensor)) return null;
+        return listener;
+    }
+
+    static void cancelTriggerSensor(SensorManager sensorManager, Sensor sensor, Object listener) {
+        sensorManager.cancelTriggerSensor((TriggerEventListener) listener, sensor);
+    }
+}
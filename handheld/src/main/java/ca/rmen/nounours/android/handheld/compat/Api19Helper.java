@@ -22,6 +22,9 @@ package ca.rmen.nounours.android.handheld.compat;
 import android.annotation.TargetApi;
 import android.app.ActionBar;
 import android.app.Activity;
+import android.hardware.Sensor;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
 import android.view.View;
 
 @TargetApi(19)
@@ -49,4 +52,8 @@ class Api19Helper {
         }
     }
 
+    static void registerListener(SensorManager sensorManager, SensorEventListener listener, Sensor sensor, int samplingPeriod, int maxReportLatencyUs) {
+        sensorManager.registerListener(listener, sensor, samplingPeriod, maxReportLatencyUs);
+    }
+
 }
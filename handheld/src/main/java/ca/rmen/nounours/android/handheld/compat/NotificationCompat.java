@@ -44,8 +44,14 @@ public final class NotificationCompat {
     }
 
     public static Notification createNotification(Context context, int iconId, int tickerTextResId, int contentTextResId, int actionIconId, CharSequence actionText, PendingIntent pendingIntent) {
-        String tickerText = context.getString(tickerTextResId);
-        String contentText = context.getString(contentTextResId);
+        return createNotification(context, iconId, context.getString(tickerTextResId), context.getString(contentTextResId), actionIconId, actionText, pendingIntent);
+    }
+
+    public static Notification createNotification(Context context, int iconId, String tickerText, String contentText, PendingIntent pendingIntent) {
+        return createNotification(context, iconId, tickerText, contentText, 0, null, pendingIntent);
+    }
+
+    public static Notification createNotification(Context context, int iconId, String tickerText, String contentText, int actionIconId, CharSequence actionText, PendingIntent pendingIntent) {
         if (ApiHelper.getAPILevel() < 11) {
             Notification notification = new Notification();
             notification.tickerText = tickerText;
@@ -0,0 +1,73 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.nounours.android.handheld.compat;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+
+import ca.rmen.nounours.android.common.compat.ApiHelper;
+
+public final class SensorCompat {
+
+    private SensorCompat() {
+        // prevent instantiation
+    }
+
+    /**
+     * Register the listener to the sensor.  If the device supports it, the sensor may keep its
+     * events in its FIFO for up to maxReportLatencyUs, and deliver them together, so the CPU
+     * doesn't have to wake up for each event.
+     */
+    public static void registerListener(SensorManager sensorManager, SensorEventListener listener, Sensor sensor, int samplingPeriod, int maxReportLatencyUs) {
+        if (ApiHelper.getAPILevel() >= 19) {
+            Api19Helper.registerListener(sensorManager, listener, sensor, samplingPeriod, maxReportLatencyUs);
+        } else {
+            sensorManager.registerListener(listener, sensor, samplingPeriod);
+        }
+    }
+
+    /**
+     * @return the significant motion sensor, or null if the device doesn't have one.
+     */
+    public static Sensor getSignificantMotionSensor(SensorManager sensorManager) {
+        if (ApiHelper.getAPILevel() >= 18) {
+            return Api18Helper.getSignificantMotionSensor(sensorManager);
+        }
+        return null;
+    }
+
+    /**
+     * Run onTrigger once, the next time the given trigger sensor fires.
+     *
+     * @return an object to give to {@link #cancelTriggerSensor}, or null if the request failed.
+     */
+    public static Object requestTriggerSensor(SensorManager sensorManager, Sensor sensor, Runnable onTrigger) {
+        if (ApiHelper.getAPILevel() >= 18) {
+            return Api18Helper.requestTriggerSensor(sensorManager, sensor, onTrigger);
+        }
+        return null;
+    }
+
+    public static void cancelTriggerSensor(SensorManager sensorManager, Sensor sensor, Object triggerListener) {
+        if (ApiHelper.getAPILevel() >= 18) {
+            Api18Helper.cancelTriggerSensor(sensorManager, sensor, triggerListener);
+        }
+    }
+}
@@ -20,7 +20,7 @@ package ca.rmen.nounours.android.handheld.dream;
 
 
 import android.annotation.TargetApi;
-import android.hardware.Sensor;
+import android.content.res.Configuration;
 import android.hardware.SensorManager;
 import android.os.Build;
 import android.os.Handler;
@@ -29,6 +29,7 @@ import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.SurfaceView;
 
+import ca.rmen.nounours.BuildConfig;
 import ca.rmen.nounours.R;
 import ca.rmen.nounours.android.common.nounours.AndroidNounours;
 import ca.rmen.nounours.android.common.nounours.EmptySoundHandler;
@@ -39,6 +40,7 @@ import ca.rmen.nounours.android.common.nounours.cache.ImageCache;
 import ca.rmen.nounours.android.common.nounours.cache.NounoursResourceCache;
 import ca.rmen.nounours.android.common.settings.NounoursSettings;
 import ca.rmen.nounours.android.handheld.nounours.FlingDetector;
+import ca.rmen.nounours.android.handheld.nounours.SensorDebugRenderer;
 import ca.rmen.nounours.android.handheld.nounours.TouchListener;
 import ca.rmen.nounours.android.handheld.nounours.orientation.SensorListener;
 import ca.rmen.nounours.android.handheld.settings.SharedPreferenceSettings;
@@ -48,9 +50,8 @@ public class NounoursDreamService extends DreamService {
     private AndroidNounours mNounours;
     private SensorListener mSensorListener;
     private SensorManager mSensorManager;
-    private Sensor mAccelerometerSensor;
-    private Sensor mMagneticFieldSensor;
     private TouchListener mTouchListener;
+    private SensorDebugRenderer mDebugRenderer;
 
     @Override
     public void onAttachedToWindow() {
@@ -61,22 +62,23 @@ public class NounoursDreamService extends DreamService {
         SurfaceView surfaceView = findViewById(R.id.surface_view);
         NounoursSettings settings = SharedPreferenceSettings.getDreamSettings(this);
         settings.setEnableSound(false);
+        SensorDebugRenderer debugRenderer = BuildConfig.DEBUG ? new SensorDebugRenderer(this) : null;
+        mDebugRenderer = debugRenderer;
         mNounours = new AndroidNounours("DREAM",
                 this,
                 new Handler(),
                 settings,
                 surfaceView.getHolder(),
-                new NounoursRenderer(),
-                new NounoursResourceCache(this, settings, new ImageCache()),
+                debugRenderer != null ? debugRenderer : new NounoursRenderer(),
+                new NounoursResourceCache(this, settings, new ImageCache(ImageCache.getRecommendedMaxSize())),
                 new EmptySoundHandler(),
                 new EmptyVibrateHandler(),
                 mListener);
         FlingDetector nounoursFlingDetector = new FlingDetector(mNounours);
         final GestureDetector gestureDetector = new GestureDetector(this, nounoursFlingDetector);
         mSensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
-        mAccelerometerSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-        mMagneticFieldSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
-        mSensorListener = new SensorListener(mNounours, this);
+        mSensorListener = new SensorListener(mNounours, this, settings);
+        if (debugRenderer != null) debugRenderer.setWakeupCounter(mSensorListener.getWakeupCounter());
         mTouchListener = new TouchListener(mNounours, gestureDetector);
     }
 
@@ -91,25 +93,33 @@ public class NounoursDreamService extends DreamService {
         super.onDreamingStarted();
         if(!mNounours.isLoading()) {
             if (mSensorManager != null) {
-                mSensorManager.registerListener(mSensorListener, mAccelerometerSensor, SensorManager.SENSOR_DELAY_NORMAL);
-                mSensorManager.registerListener(mSensorListener, mMagneticFieldSensor, SensorManager.SENSOR_DELAY_NORMAL);
+                mSensorListener.registerSensors(mSensorManager);
             }
         }
         mNounours.reloadSettings();
         mNounours.doPing(true);
+        if (mDebugRenderer != null) mDebugRenderer.startRefreshing(mNounours);
     }
 
     @Override
     public void onDreamingStopped() {
         if (mSensorManager != null) {
-            mSensorManager.unregisterListener(mSensorListener);
+            mSensorListener.unregisterSensors(mSensorManager);
         }
         mNounours.doPing(false);
+        if (mDebugRenderer != null) mDebugRenderer.stopRefreshing();
         super.onDreamingStopped();
     }
 
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        if (mSensorListener != null) mSensorListener.onConfigurationChanged();
+    }
+
     @Override
     public boolean dispatchTouchEvent(MotionEvent event) {
+        mSensorListener.onUserActivity();
         mTouchListener.onTouch(null, event);
         super.dispatchTouchEvent(event);
         return false;
@@ -128,8 +138,7 @@ public class NounoursDreamService extends DreamService {
         public void onThemeLoadComplete() {
             if (mSensorManager != null) {
                 mSensorListener.rereadOrientationFile(getApplicationContext());
-                mSensorManager.registerListener(mSensorListener, mAccelerometerSensor, SensorManager.SENSOR_DELAY_NORMAL);
-                mSensorManager.registerListener(mSensorListener, mMagneticFieldSensor, SensorManager.SENSOR_DELAY_NORMAL);
+                mSensorListener.registerSensors(mSensorManager);
             }
         }
     };
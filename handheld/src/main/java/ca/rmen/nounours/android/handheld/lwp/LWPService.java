@@ -21,7 +21,6 @@ package ca.rmen.nounours.android.handheld.lwp;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.hardware.Sensor;
 import android.hardware.SensorManager;
 import android.os.Build;
 import android.os.Handler;
@@ -31,6 +30,7 @@ import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.SurfaceHolder;
 
+import ca.rmen.nounours.BuildConfig;
 import ca.rmen.nounours.android.common.compat.ApiHelper;
 import ca.rmen.nounours.android.common.nounours.AndroidNounours;
 import ca.rmen.nounours.android.common.nounours.EmptySoundHandler;
@@ -41,6 +41,7 @@ import ca.rmen.nounours.android.common.nounours.cache.ImageCache;
 import ca.rmen.nounours.android.common.nounours.cache.NounoursResourceCache;
 import ca.rmen.nounours.android.common.settings.NounoursSettings;
 import ca.rmen.nounours.android.handheld.nounours.FlingDetector;
+import ca.rmen.nounours.android.handheld.nounours.SensorDebugRenderer;
 import ca.rmen.nounours.android.handheld.nounours.TouchListener;
 import ca.rmen.nounours.android.handheld.nounours.orientation.SensorListener;
 import ca.rmen.nounours.android.handheld.settings.SharedPreferenceSettings;
@@ -59,9 +60,8 @@ public class LWPService extends WallpaperService {
         private AndroidNounours mNounours = null;
         private SensorListener mSensorListener;
         private SensorManager mSensorManager;
-        private Sensor mAccelerometerSensor;
-        private Sensor mMagneticFieldSensor;
         private TouchListener mTouchListener;
+        private SensorDebugRenderer mDebugRenderer;
 
         @Override
         public void onCreate(SurfaceHolder surfaceHolder) {
@@ -70,13 +70,15 @@ public class LWPService extends WallpaperService {
             Context context = getApplicationContext();
             NounoursSettings settings = SharedPreferenceSettings.getLwpSettings(context);
             settings.setEnableSound(false);
+            SensorDebugRenderer debugRenderer = BuildConfig.DEBUG ? new SensorDebugRenderer(context) : null;
+            mDebugRenderer = debugRenderer;
             mNounours = new AndroidNounours("LWP",
                     context,
                     new Handler(),
                     settings,
                     getSurfaceHolder(),
-                    new NounoursRenderer(),
-                    new NounoursResourceCache(context, settings, new ImageCache()),
+                    debugRenderer != null ? debugRenderer : new NounoursRenderer(),
+                    new NounoursResourceCache(context, settings, new ImageCache(ImageCache.getRecommendedMaxSize())),
                     new EmptySoundHandler(),
                     new EmptyVibrateHandler(),
                     mListener);
@@ -85,9 +87,8 @@ public class LWPService extends WallpaperService {
             boolean isOldEmulator = Build.DEVICE.startsWith("generic") && ApiHelper.getAPILevel() < 9;
             if (!isOldEmulator) {
                 mSensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
-                mAccelerometerSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-                mMagneticFieldSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
-                mSensorListener = new SensorListener(mNounours, context);
+                mSensorListener = new SensorListener(mNounours, context, settings);
+                if (debugRenderer != null) debugRenderer.setWakeupCounter(mSensorListener.getWakeupCounter());
             }
             mTouchListener = new TouchListener(mNounours, gestureDetector);
             final SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(LWPService.this);
@@ -106,8 +107,7 @@ public class LWPService extends WallpaperService {
             if (visible) {
                 if(!mNounours.isLoading()) {
                     if (mSensorManager != null) {
-                        mSensorManager.registerListener(mSensorListener, mAccelerometerSensor, SensorManager.SENSOR_DELAY_NORMAL);
-                        mSensorManager.registerListener(mSensorListener, mMagneticFieldSensor, SensorManager.SENSOR_DELAY_NORMAL);
+                        mSensorListener.registerSensors(mSensorManager);
                     }
                 }
                 mNounours.reloadSettings();
@@ -116,11 +116,13 @@ public class LWPService extends WallpaperService {
                 }
                 mNounours.doPing(true);
                 mWasPaused = false;
+                if (mDebugRenderer != null) mDebugRenderer.startRefreshing(mNounours);
 
             } else {
                 if (mSensorManager != null) {
-                    mSensorManager.unregisterListener(mSensorListener);
+                    mSensorListener.unregisterSensors(mSensorManager);
                 }
+                if (mDebugRenderer != null) mDebugRenderer.stopRefreshing();
                 mWasPaused = true;
                 mNounours.doPing(false);
             }
@@ -129,6 +131,8 @@ public class LWPService extends WallpaperService {
         @Override
         public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
             super.onSurfaceChanged(holder, format, width, height);
+            // The surface changes when the display is rotated.
+            if (mSensorListener != null) mSensorListener.onConfigurationChanged();
             mNounours.redraw();
         }
 
@@ -139,6 +143,7 @@ public class LWPService extends WallpaperService {
 
         @Override
         public void onTouchEvent(MotionEvent event) {
+            if (mSensorListener != null) mSensorListener.onUserActivity();
             mTouchListener.onTouch(null, event);
         }
 
@@ -160,8 +165,7 @@ public class LWPService extends WallpaperService {
             public void onThemeLoadComplete() {
                 if (mSensorManager != null) {
                     mSensorListener.rereadOrientationFile(getApplicationContext());
-                    mSensorManager.registerListener(mSensorListener, mAccelerometerSensor, SensorManager.SENSOR_DELAY_NORMAL);
-                    mSensorManager.registerListener(mSensorListener, mMagneticFieldSensor, SensorManager.SENSOR_DELAY_NORMAL);
+                    mSensorListener.registerSensors(mSensorManager);
                 }
             }
         };
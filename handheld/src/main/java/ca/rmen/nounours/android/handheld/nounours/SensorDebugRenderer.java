@@ -0,0 +1,106 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.nounours.android.handheld.nounours;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.TypedValue;
+
+import ca.rmen.nounours.android.common.nounours.AndroidNounours;
+import ca.rmen.nounours.android.common.nounours.NounoursRenderer;
+import ca.rmen.nounours.android.common.settings.NounoursSettings;
+import ca.rmen.nounours.android.handheld.nounours.orientation.SensorWakeupCounter;
+
+/**
+ * Draws nounours, with the number of times per minute the sensors woke us up, to check the power
+ * use of the sensors in debug builds.
+ * <p/>
+ * Nounours isn't redrawn while it's idle: between {@link #startRefreshing} and
+ * {@link #stopRefreshing}, we redraw it periodically, so that the count stays up to date.
+ */
+public class SensorDebugRenderer extends NounoursRenderer {
+    private static final int TEXT_SIZE_SP = 14;
+    private static final long REFRESH_INTERVAL_MS = 5000;
+
+    private final Paint mTextPaint = new Paint();
+    private final float mMargin;
+    private final StringBuilder mText = new StringBuilder();
+    private volatile SensorWakeupCounter mWakeupCounter;
+    private final Handler mHandler = new Handler();
+    private AndroidNounours mNounours;
+
+    public SensorDebugRenderer(Context context) {
+        float textSize = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, TEXT_SIZE_SP, context.getResources().getDisplayMetrics());
+        mTextPaint.setAntiAlias(true);
+        mTextPaint.setColor(Color.WHITE);
+        mTextPaint.setTextSize(textSize);
+        mTextPaint.setShadowLayer(2, 1, 1, Color.BLACK);
+        mMargin = textSize;
+    }
+
+    public void setWakeupCounter(SensorWakeupCounter wakeupCounter) {
+        mWakeupCounter = wakeupCounter;
+    }
+
+    /**
+     * Redraw the given nounours periodically, until {@link #stopRefreshing()} is called.
+     */
+    public void startRefreshing(AndroidNounours nounours) {
+        mNounours = nounours;
+        mHandler.removeCallbacks(mRefreshRunnable);
+        mHandler.postDelayed(mRefreshRunnable, REFRESH_INTERVAL_MS);
+    }
+
+    public void stopRefreshing() {
+        mHandler.removeCallbacks(mRefreshRunnable);
+        mNounours = null;
+    }
+
+    private final Runnable mRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mNounours == null) return;
+            mNounours.redraw();
+            mHandler.postDelayed(this, REFRESH_INTERVAL_MS);
+        }
+    };
+
+    /**
+     * The text isn't part of the cached frames, so the view must be redrawn completely.
+     */
+    @Override
+    protected boolean canRedrawPartially() {
+        return false;
+    }
+
+    @Override
+    public void render(NounoursSettings settings, Bitmap bitmap, Canvas c, int viewWidth, int viewHeight) {
+        super.render(settings, bitmap, c, viewWidth, viewHeight);
+        SensorWakeupCounter wakeupCounter = mWakeupCounter;
+        if (wakeupCounter == null) return;
+        mText.setLength(0);
+        mText.append(wakeupCounter.getWakeupsPerMinute(SystemClock.elapsedRealtime())).append(" wakeups/min");
+        c.drawText(mText, 0, mText.length(), mMargin, viewHeight - mMargin, mTextPaint);
+    }
+}
@@ -49,6 +49,18 @@ final class OrientationImage {
         this.maxRoll = maxRoll;
     }
 
+    /**
+     * @return true if the given orientation, in degrees, is within the ranges of this image.
+     */
+    boolean matches(float yaw, float pitch, float roll) {
+        return yaw >= minYaw
+                && yaw <= maxYaw
+                && pitch >= minPitch
+                && pitch <= maxPitch
+                && roll >= minRoll
+                && roll <= maxRoll;
+    }
+
     public String toString() {
         return "Orientation: " + imageId + ", Yaw between " + minYaw + " and " + maxYaw + ", pitch between " + minPitch
                 + " and " + maxPitch + ", roll between " + minRoll + " and " + maxRoll;
@@ -21,9 +21,9 @@ package ca.rmen.nounours.android.handheld.nounours.orientation;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
 
 import ca.rmen.nounours.io.CSVReader;
 import ca.rmen.nounours.io.NounoursReader;
@@ -44,7 +44,7 @@ class OrientationImageReader extends NounoursReader {
     private static final String COL_MIN_ROLL = "MinRoll";
     private static final String COL_MAX_ROLL = "MaxRoll";
 
-    private final Set<OrientationImage> mOrientationImages = new HashSet<>();
+    private final List<OrientationImage> mOrientationImages = new ArrayList<>();
 
     /**
      * Immediately reads the CSV content and caches the image-orientation data.
@@ -88,10 +88,10 @@ class OrientationImageReader extends NounoursReader {
     }
 
     /**
-     * @return the set of OrientationImage objects read from the CSV file.
+     * @return the OrientationImage objects read from the CSV file, in the order of the file.
      */
-    public Set<OrientationImage> getOrientationImages() {
-        return Collections.unmodifiableSet(mOrientationImages);
+    public List<OrientationImage> getOrientationImages() {
+        return Collections.unmodifiableList(mOrientationImages);
     }
 
 }
@@ -0,0 +1,103 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.rmen.nounours.android.handheld.nounours.orientation;
+
+import java.util.List;
+
+/**
+ * Finds the orientation image for an orientation of the device, without checking all the
+ * orientation images.
+ * <p/>
+ * Each axis is divided in one-degree buckets.  For each bucket, a bit set tells which orientation
+ * images have a range overlapping it.  A lookup intersects the bit sets of the yaw, pitch and
+ * roll buckets, and only checks the exact ranges of the images left.  When several images
+ * match, the first one of the orientation file wins.
+ */
+final class OrientationIndex {
+    private static final int MIN_ANGLE = -180;
+    private static final int MAX_ANGLE = 180;
+    private static final int BUCKET_COUNT = MAX_ANGLE - MIN_ANGLE + 1;
+
+    private final OrientationImage[] mOrientationImages;
+    // The bit sets of all the buckets of an axis, one after the other.
+    private final int mWordsPerBucket;
+    private final long[] mYawBuckets;
+    private final long[] mPitchBuckets;
+    private final long[] mRollBuckets;
+
+    /**
+     * @param orientationImages the orientation images, by order of priority.
+     */
+    OrientationIndex(List<OrientationImage> orientationImages) {
+        mOrientationImages = orientationImages.toArray(new OrientationImage[orientationImages.size()]);
+        mWordsPerBucket = (mOrientationImages.length + 63) / 64;
+        mYawBuckets = new long[BUCKET_COUNT * mWordsPerBucket];
+        mPitchBuckets = new long[BUCKET_COUNT * mWordsPerBucket];
+        mRollBuckets = new long[BUCKET_COUNT * mWordsPerBucket];
+        for (int i = 0; i < mOrientationImages.length; i++) {
+            OrientationImage orientationImage = mOrientationImages[i];
+            addRange(mYawBuckets, i, orientationImage.minYaw, orientationImage.maxYaw);
+            addRange(mPitchBuckets, i, orientationImage.minPitch, orientationImage.maxPitch);
+            addRange(mRollBuckets, i, orientationImage.minRoll, orientationImage.maxRoll);
+        }
+    }
+
+    /**
+     * @return the orientation image to display for the given orientation, in degrees, or null
+     * if there is none.
+     */
+    OrientationImage find(float yaw, float pitch, float roll) {
+        int yawOffset = getBucket(yaw) * mWordsPerBucket;
+        int pitchOffset = getBucket(pitch) * mWordsPerBucket;
+        int rollOffset = getBucket(roll) * mWordsPerBucket;
+        for (int word = 0; word < mWordsPerBucket; word++) {
+            long candidates = mYawBuckets[yawOffset + word]
+                    & mPitchBuckets[pitchOffset + word]
+                    & mRollBuckets[rollOffset + word];
+            // Lowest bits first: they're the images with the highest priority.
+            while (candidates != 0) {
+                OrientationImage orientationImage = mOrientationImages[word * 64 + Long.numberOfTrailingZeros(candidates)];
+                if (orientationImage.matches(yaw, pitch, roll)) return orientationImage;
+                candidates &= candidates - 1;
+            }
+        }
+        return null;
+    }
+
+    private void addRange(long[] buckets, int orientationImageIndex, float min, float max) {
+        if (min > max) return;
+        int word = orientationImageIndex / 64;
+        long bit = 1L << (orientationImageIndex % 64);
+        int lastBucket = getBucket(max);
+        for (int bucket = getBucket(min); bucket <= lastBucket; bucket++) {
+            buckets[bucket * mWordsPerBucket + word] |= bit;
+        }
+    }
+
+    /**
+     * @return the bucket of the given angle.  Angles out of range go to the first or last bucket.
+     */
+    private static int getBucket(float angle) {
+        int bucket = (int) Math.floor(angle) - MIN_ANGLE;
+        if (bucket < 0) return 0;
+        if (bucket >= BUCKET_COUNT) return BUCKET_COUNT - 1;
+        return bucket;
+    }
+}
@@ -19,57 +19,282 @@
 
 package ca.rmen.nounours.android.handheld.nounours.orientation;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.AsyncTask;
+import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Surface;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashSet;
-import java.util.Set;
 
 import ca.rmen.nounours.android.common.Constants;
+import ca.rmen.nounours.android.common.compat.ApiHelper;
 import ca.rmen.nounours.NounoursRecorder;
+import ca.rmen.nounours.android.common.settings.NounoursSettings;
 import ca.rmen.nounours.android.handheld.compat.DisplayCompat;
+import ca.rmen.nounours.android.handheld.compat.SensorCompat;
+import ca.rmen.nounours.android.handheld.settings.SharedPreferenceSettings;
 import ca.rmen.nounours.data.Image;
 import ca.rmen.nounours.android.common.nounours.AndroidNounours;
 
 /**
  * Manages shaking and tilting events for Nounours on the Android device.
+ * <p/>
+ * The orientation comes from a rotation vector sensor if the device has one, or is computed
+ * from the accelerometer and the magnetic field otherwise.  No memory is allocated per event.
+ * <p/>
+ * In low power mode, for the live wallpaper and the daydream, the sensors may deliver their events
+ * in batches.  When nothing happened for the idle timeout, we stop following the orientation, and
+ * only listen for shakes, at a lower rate and in bigger batches, and for a significant motion if
+ * the device can detect them.
  *
  * @author Carmen Alvarez
  */
 public class SensorListener implements SensorEventListener {
     private static final String TAG = Constants.TAG + SensorListener.class.getSimpleName();
-
-    private float mXAccel = Float.MAX_VALUE;
-    private float mYAccel = Float.MAX_VALUE;
-    private float mZAccel = Float.MAX_VALUE;
-    private boolean mIsTiltImage = false;
-    private final Set<OrientationImage> mOrientationImages = new HashSet<>();
+    // Something else may replace the tilt image: show it again if it's still the right one.
+    private static final long TILT_IMAGE_REFRESH_MS = 500;
+    // In low power mode, how long the sensors may keep their events before delivering them.
+    // There's no point in getting the orientation more often than we refresh the tilt image.
+    private static final int MAX_REPORT_LATENCY_US = (int) (TILT_IMAGE_REFRESH_MS * 1000);
+    private static final int IDLE_MAX_REPORT_LATENCY_US = 2 * 1000 * 1000;
+    // When we're idle, the accelerometer only needs a couple of readings per shake detection window,
+    // to catch the peaks in opposite directions of a shake.
+    private static final int IDLE_SAMPLING_PERIOD_US = 400 * 1000;
+    private static final long NANOS_PER_MILLI = 1000 * 1000;
+
+    private final ShakeDetector mShakeDetector;
+    // True while an animation or a theme load ignores the sensor events.
+    private boolean mIsBusy;
+    // The tilt image we're displaying, if any.
+    private Image mTiltImage;
+    private long mTiltImageTimestamp;
+    // Built in the background when the theme changes.
+    private volatile OrientationIndex mOrientationIndex;
 
     private final AndroidNounours mNounours;
     private final Context mContext;
-
-    private float[] mLastAcceleration = null;
-    private float[] mLastMagneticField;
-    private long mLastAnalysisTimestamp = 0;
+    // If not null, the sensors are registered in low power mode, and go idle after the idle timeout of these settings.
+    private final NounoursSettings mLowPowerSettings;
+    private final SensorWakeupCounter mWakeupCounter = new SensorWakeupCounter();
+    private SensorManager mSensorManager;
+    private long mIdleTimeout;
+    private boolean mIsIdle;
+    // The last time the user shook the device, tilted it, or touched the screen, in the time base
+    // of the sensor events, in milliseconds.  The times are taken from the events, so that a
+    // replayed trace behaves like the recording.
+    private long mLastActivityTime;
+    // Set when there's no sensor event to take the time from: the next event gives mLastActivityTime.
+    private boolean mIsLastActivityTimePending;
+    private Sensor mSignificantMotionSensor;
+    private Object mSignificantMotionListener;
+    // Not null if the sensor events are recorded.
+    private SensorTraceRecorder mTraceRecorder;
+
+    private final float[] mLastAcceleration = new float[3];
+    private boolean mHasAcceleration;
+    private final float[] mLastMagneticField = new float[]{0, 0, -1};
+    // Some devices give more than the 4 values getRotationMatrixFromVector() accepts.
+    private final float[] mRotationVector = new float[4];
+    // If false, we compute the orientation from the acceleration and the magnetic field.
+    private boolean mHasRotationVectorSensor;
+    private final float[] mRotationMatrix = new float[16];
+    private final float[] mInclinationMatrix = new float[16];
+    private final float[] mRemappedRotationMatrix = new float[16];
+    private final float[] mOrientationValues = new float[3];
+    // Looking it up for each event would allocate, and call the window manager.
+    private int mDisplayRotation;
 
     public SensorListener(AndroidNounours nounours,
                           Context context) {
+        this(nounours, context, null);
+    }
+
+    /**
+     * @param lowPowerSettings if not null, the sensors are registered in low power mode, and go
+     *                         idle after the idle timeout of these settings.
+     */
+    public SensorListener(AndroidNounours nounours,
+                          Context context,
+                          NounoursSettings lowPowerSettings) {
         mNounours = nounours;
         mContext = context;
-        mLastMagneticField = new float[]{0, 0, -1};
+        mLowPowerSettings = lowPowerSettings;
+        mShakeDetector = new ShakeDetector(nounours.getMinShakeSpeed());
+    }
+
+    /**
+     * Start listening to the sensors we need: the accelerometer to detect shakes, and a rotation
+     * vector sensor, or the magnetic field sensor, for the orientation.
+     */
+    public void registerSensors(SensorManager sensorManager) {
+        mSensorManager = sensorManager;
+        mDisplayRotation = DisplayCompat.getRotation(mContext);
+        if (mLowPowerSettings != null) mIdleTimeout = mLowPowerSettings.getIdleTimeout();
+        if (mTraceRecorder == null && SharedPreferenceSettings.isSensorTraceEnabled(mContext)) {
+            mTraceRecorder = SensorTraceRecorder.start(mContext);
+        }
+        setIdle(false);
+    }
+
+    public void unregisterSensors(SensorManager sensorManager) {
+        sensorManager.unregisterListener(this);
+        cancelSignificantMotion(sensorManager);
+        mSensorManager = null;
+        mWakeupCounter.reset();
+        mShakeDetector.reset();
+        mIsBusy = false;
+        if (mTraceRecorder != null) {
+            mTraceRecorder.stop();
+            mTraceRecorder = null;
+        }
+    }
+
+    /**
+     * To be called when the user touches the screen: in low power mode, we go back to following
+     * the orientation if we were idle.
+     */
+    public void onUserActivity() {
+        if (mSensorManager == null || mLowPowerSettings == null) return;
+        if (mIsIdle) setIdle(false);
+        else mIsLastActivityTimePending = true;
+    }
+
+    /**
+     * To be called when the configuration changes: the display may have been rotated.
+     */
+    public void onConfigurationChanged() {
+        mDisplayRotation = DisplayCompat.getRotation(mContext);
+    }
+
+    public SensorWakeupCounter getWakeupCounter() {
+        return mWakeupCounter;
+    }
+
+    private void setIdle(boolean isIdle) {
+        Log.v(TAG, "setIdle " + isIdle);
+        mIsIdle = isIdle;
+        mIsLastActivityTimePending = true;
+        mSensorManager.unregisterListener(this);
+        cancelSignificantMotion(mSensorManager);
+        if (isIdle) {
+            // We no longer follow the orientation: don't leave a tilt image which may be wrong by now.
+            if (mTiltImage != null) {
+                mNounours.reset();
+                mTiltImage = null;
+            }
+            registerIdleSensors();
+        } else {
+            registerActiveSensors();
+        }
+    }
+
+    private void registerActiveSensors() {
+        registerListener(mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER), SensorManager.SENSOR_DELAY_NORMAL, MAX_REPORT_LATENCY_US);
+        Sensor rotationVectorSensor = getRotationVectorSensor(mSensorManager);
+        mHasRotationVectorSensor = rotationVectorSensor != null;
+        if (mHasRotationVectorSensor) {
+            Log.v(TAG, "Using the orientation from " + rotationVectorSensor.getName());
+            registerListener(rotationVectorSensor, SensorManager.SENSOR_DELAY_NORMAL, MAX_REPORT_LATENCY_US);
+        } else {
+            registerListener(mSensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD), SensorManager.SENSOR_DELAY_NORMAL, MAX_REPORT_LATENCY_US);
+        }
+    }
+
+    /**
+     * Listen for shakes, and wait for a significant motion if the device can detect them.
+     */
+    private void registerIdleSensors() {
+        Sensor significantMotionSensor = SensorCompat.getSignificantMotionSensor(mSensorManager);
+        if (significantMotionSensor != null) {
+            mSignificantMotionListener = SensorCompat.requestTriggerSensor(mSensorManager, significantMotionSensor, mSignificantMotionRunnable);
+            if (mSignificantMotionListener != null) mSignificantMotionSensor = significantMotionSensor;
+        }
+        // A significant motion may not be detected when the user shakes the device in place.
+        registerListener(mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER), IDLE_SAMPLING_PERIOD_US, IDLE_MAX_REPORT_LATENCY_US);
+    }
+
+    /**
+     * @param samplingPeriod one of the SensorManager.SENSOR_DELAY_* constants, or a period in
+     *                       microseconds.
+     */
+    private void registerListener(Sensor sensor, int samplingPeriod, int maxReportLatencyUs) {
+        if (sensor == null) return;
+        if (mLowPowerSettings == null) {
+            mSensorManager.registerListener(this, sensor, samplingPeriod);
+        } else {
+            SensorCompat.registerListener(mSensorManager, this, sensor, samplingPeriod, maxReportLatencyUs);
+        }
+    }
+
+    private void cancelSignificantMotion(SensorManager sensorManager) {
+        if (mSignificantMotionListener != null) {
+            SensorCompat.cancelTriggerSensor(sensorManager, mSignificantMotionSensor, mSignificantMotionListener);
+            mSignificantMotionListener = null;
+        }
+    }
+
+    private final Runnable mSignificantMotionRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // The trigger sensor is disabled once it fired.
+            mSignificantMotionListener = null;
+            mWakeupCounter.onEvent(SystemClock.elapsedRealtime());
+            if (mSensorManager != null && mIsIdle) setIdle(false);
+        }
+    };
+
+    /**
+     * In low power mode, go idle if nothing happened for the idle timeout.
+     *
+     * @param now the time of the current sensor event, in milliseconds.
+     */
+    private void checkIdle(long now) {
+        if (mLowPowerSettings != null && !mIsIdle && mSensorManager != null
+                && now - mLastActivityTime > mIdleTimeout) {
+            setIdle(true);
+        }
+    }
+
+    /**
+     * The user shook or tilted the device.  If we were idle, go back to following the orientation.
+     *
+     * @param now the time of the current sensor event, in milliseconds.
+     */
+    private void onActivity(long now) {
+        if (mIsIdle && mSensorManager != null) setIdle(false);
+        mLastActivityTime = now;
+        mIsLastActivityTimePending = false;
+    }
+
+    /**
+     * @return the game rotation vector sensor, which doesn't need the magnetometer, or the
+     * rotation vector sensor, or null if the device has neither.
+     */
+    private static Sensor getRotationVectorSensor(SensorManager sensorManager) {
+        Sensor sensor = null;
+        if (ApiHelper.getAPILevel() >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            sensor = getGameRotationVectorSensor(sensorManager);
+        }
+        if (sensor == null) sensor = sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
+        return sensor;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static Sensor getGameRotationVectorSensor(SensorManager sensorManager) {
+        return sensorManager.getDefaultSensor(Sensor.TYPE_GAME_ROTATION_VECTOR);
     }
 
     public void rereadOrientationFile(final Context context) {
         Log.v(TAG, "rereadOrientationFile");
-        mOrientationImages.clear();
+        mOrientationIndex = null;
         new AsyncTask<Void, Void, Void>() {
 
             @Override
@@ -80,7 +305,7 @@ public class SensorListener implements SensorEventListener {
                     try {
                         orientationImageReader = new OrientationImageReader(
                                 orientationImageFile);
-                        mOrientationImages.addAll(orientationImageReader
+                        mOrientationIndex = new OrientationIndex(orientationImageReader
                                 .getOrientationImages());
                     } catch (IOException e) {
                         Log.v(TAG, e.getMessage(), e);
@@ -117,121 +342,131 @@ public class SensorListener implements SensorEventListener {
      */
     @Override
     public void onSensorChanged(SensorEvent event) {
-        // Don't do anything if we're shaking.
+        onSensorChanged(event.timestamp, event.sensor.getType(), event.values);
+    }
+
+    /**
+     * Process a sensor event.  Sensor traces are replayed by calling this directly.
+     *
+     * @param timestamp the time of the event, in nanoseconds.
+     */
+    void onSensorChanged(long timestamp, int sensorType, float[] values) {
+        // The wakeups are counted when the events are delivered, not when they happened.
+        mWakeupCounter.onEvent(SystemClock.elapsedRealtime());
+        if (mTraceRecorder != null) mTraceRecorder.record(timestamp, sensorType, values);
+        long now = timestamp / NANOS_PER_MILLI;
+        if (mIsLastActivityTimePending) {
+            mLastActivityTime = now;
+            mIsLastActivityTimePending = false;
+        }
+        // Don't do anything if we're shaking.  The shake detector forgets its readings once,
+        // when we start ignoring the events.
         if (mNounours.isShaking() || mNounours.isLoading()) {
-            mXAccel = Float.MAX_VALUE;
-            mYAccel = Float.MAX_VALUE;
-            mZAccel = Float.MAX_VALUE;
+            if (!mIsBusy) {
+                mIsBusy = true;
+                mShakeDetector.reset();
+            }
             return;
         }
-        int sensorType = event.sensor.getType();
+        mIsBusy = false;
 
         if (sensorType == Sensor.TYPE_ACCELEROMETER) {
-            onAccelerationChanged(event);
+            onAccelerationChanged(timestamp, values);
+            // When we're idle, we only listen for shakes.
+            if (!mHasRotationVectorSensor && !mIsIdle) onOrientationChanged(computeRotationMatrix(), now);
         } else if (sensorType == Sensor.TYPE_MAGNETIC_FIELD) {
-            onMagneticFieldChanged(event);
+            onMagneticFieldChanged(values);
+            onOrientationChanged(computeRotationMatrix(), now);
+        } else {
+            // A rotation vector sensor.  We know it's registered, but a replayed trace doesn't.
+            mHasRotationVectorSensor = true;
+            float[] rotationVector = values;
+            if (rotationVector.length > mRotationVector.length) {
+                System.arraycopy(rotationVector, 0, mRotationVector, 0, mRotationVector.length);
+                rotationVector = mRotationVector;
+            }
+            SensorManager.getRotationMatrixFromVector(mRotationMatrix, rotationVector);
+            onOrientationChanged(true, now);
         }
-        onOrientationChanged();
+        checkIdle(now);
+    }
+
+    /**
+     * Compute the rotation matrix from the acceleration and the magnetic field.
+     *
+     * @return false if we don't have the data to compute it.
+     */
+    private boolean computeRotationMatrix() {
+        // We need to have recorded the acceleration at least once.
+        return mHasAcceleration
+                && SensorManager.getRotationMatrix(mRotationMatrix, mInclinationMatrix,
+                mLastAcceleration, mLastMagneticField);
     }
 
     /**
      * Display a shake animation if the user shook the device.
      */
-    private void onAccelerationChanged(SensorEvent event) {
-        float[] values = event.values;
-        float eventAccelX = values[0];
-        float eventAccelY = values[1];
-        float eventAccelZ = values[2];
-        if (mXAccel != Float.MAX_VALUE) {
-            final float netAccelX = Math.abs(mXAccel - eventAccelX);
-            final float netAccelY = Math.abs(mYAccel - eventAccelY);
-            final float netAccelZ = Math.abs(mZAccel - eventAccelZ);
-
-            final float shakeFactor = mNounours.getMinShakeSpeed();
-            if (netAccelX > shakeFactor || netAccelY > shakeFactor
-                    || netAccelZ > shakeFactor) {
-                mNounours.onShake();
-            }
-        }
-        // For some reason, the first reading when the app starts, will give
-        // some values of 0.0, which shouldn't be possible.
-        if (eventAccelX != 0.0
-                && eventAccelY != 0.0
-                && eventAccelZ != 0.0) {
-            mXAccel = eventAccelX;
-            mYAccel = eventAccelY;
-            mZAccel = eventAccelZ;
+    private void onAccelerationChanged(long timestamp, float[] values) {
+        // The theme may have changed.
+        mShakeDetector.setThreshold(mNounours.getMinShakeSpeed());
+        if (mShakeDetector.onAcceleration(timestamp, values[0], values[1], values[2])) {
+            mNounours.onShake();
+            onActivity(timestamp / NANOS_PER_MILLI);
         }
-        mLastAcceleration = values.clone();
+        System.arraycopy(values, 0, mLastAcceleration, 0, mLastAcceleration.length);
+        mHasAcceleration = true;
     }
 
     /**
      * Display a special image if the device is in a given orientation.
+     *
+     * @param hasRotationMatrix true if the rotation matrix was updated with the device orientation.
+     * @param now               the time of the sensor event, in milliseconds.
      */
-    private void onOrientationChanged() {
-        long now = System.currentTimeMillis();
-        if (now - mLastAnalysisTimestamp < 500) return;
-        float[] inR = new float[16];
-        float[] I = new float[16];
-
-        mLastAnalysisTimestamp = now;
-
-        // We need to have recorded acceleration and magnetic field at least once.
-        if (mLastAcceleration == null
-                || mLastMagneticField == null
-                || !SensorManager.getRotationMatrix(inR, I,
-                mLastAcceleration, mLastMagneticField))
+    private void onOrientationChanged(boolean hasRotationMatrix, long now) {
+        OrientationIndex orientationIndex = mOrientationIndex;
+        if (orientationIndex == null || !hasRotationMatrix) return;
+
+        remapCoordinateSystem(mRotationMatrix, mRemappedRotationMatrix);
+        SensorManager.getOrientation(mRemappedRotationMatrix, mOrientationValues);
+
+        final float yaw = (float) Math.toDegrees(mOrientationValues[0]);
+        final float pitch = (float) Math.toDegrees(mOrientationValues[1]);
+        final float roll = (float) Math.toDegrees(mOrientationValues[2]);
+        OrientationImage orientationImage = orientationIndex.find(yaw, pitch, roll);
+        if (orientationImage != null) {
+            final Image image = mNounours.getCurrentTheme().getImages().get(
+                    orientationImage.imageId);
+            if (image == mTiltImage && now - mTiltImageTimestamp < TILT_IMAGE_REFRESH_MS) return;
+            if (image != mTiltImage) onActivity(now);
+            mNounours.stopAnimation();
+            mNounours.setImage(image);
+            NounoursRecorder nounoursRecorder = mNounours.getNounoursRecorder();
+            if (nounoursRecorder.isRecording()) nounoursRecorder.addImage(image);
+            // Note that we are currently displaying a "tilt" image.
+            mTiltImage = image;
+            mTiltImageTimestamp = now;
             return;
-
-        float[] outR = remapCoordinateSystem(inR);
-        float[] orientationValues = new float[3];
-        orientationValues = SensorManager.getOrientation(outR,
-                orientationValues);
-        float[] orientationValuesDeg = new float[3];
-        for (int i = 0; i < orientationValues.length; i++) {
-            orientationValuesDeg[i] = (float) (orientationValues[i] * 180.0f / Math.PI);
-        }
-
-        final float yaw = orientationValuesDeg[0];
-        final float pitch = orientationValuesDeg[1];
-        final float roll = orientationValuesDeg[2];
-        for (final OrientationImage orientationImage : mOrientationImages) {
-            if (yaw >= orientationImage.minYaw
-                    && yaw <= orientationImage.maxYaw
-                    && pitch >= orientationImage.minPitch
-                    && pitch <= orientationImage.maxPitch
-                    && roll >= orientationImage.minRoll
-                    && roll <= orientationImage.maxRoll) {
-                final Image image = mNounours.getCurrentTheme().getImages().get(
-                        orientationImage.imageId);
-                mNounours.stopAnimation();
-                mNounours.setImage(image);
-                NounoursRecorder nounoursRecorder = mNounours.getNounoursRecorder();
-                if (nounoursRecorder.isRecording()) nounoursRecorder.addImage(image);
-                // Note that we are currently displaying a "tilt" image.
-                mIsTiltImage = true;
-                return;
-            }
         }
         // Couldn't find any tilt image for this orientation, reset to the
         // default image if currently displaying a
         // tilt image
-        if (mIsTiltImage) {
+        if (mTiltImage != null) {
             mNounours.reset();
-            mIsTiltImage = false;
+            mTiltImage = null;
+            onActivity(now);
         }
     }
 
-    private void onMagneticFieldChanged(SensorEvent event) {
-        mLastMagneticField = event.values.clone();
+    private void onMagneticFieldChanged(float[] values) {
+        System.arraycopy(values, 0, mLastMagneticField, 0, mLastMagneticField.length);
     }
 
-    private float[] remapCoordinateSystem(float[] values) {
+    private void remapCoordinateSystem(float[] values, float[] result) {
         int x = SensorManager.AXIS_X;
         int y = SensorManager.AXIS_Y;
 
-        int rotation = DisplayCompat.getRotation(mContext);
-        switch (rotation) {
+        switch (mDisplayRotation) {
             case Surface.ROTATION_90:
                 //noinspection SuspiciousNameCombination
                 x = SensorManager.AXIS_Y;
@@ -256,9 +491,7 @@ public class SensorListener implements SensorEventListener {
                 break;
         }
 
-        float[] result = new float[values.length];
         SensorManager.remapCoordinateSystem(values, x, y, result);
-        return result;
     }
 
     @Override
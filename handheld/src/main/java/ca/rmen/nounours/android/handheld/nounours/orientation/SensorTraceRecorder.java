@@ -0,0 +1,143 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.nounours.android.handheld.nounours.orientation;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import ca.rmen.nounours.android.common.Constants;
+
+/**
+ * Writes the sensor events to a file, so they can be replayed later to reproduce a problem with
+ * the tilt images or the shakes.
+ * <p/>
+ * The file starts with {@link #MAGIC} and {@link #VERSION}, followed by one record per event:
+ * the timestamp of the event in nanoseconds (long), the sensor type (int), and the first three
+ * values of the event (floats), in big-endian order.
+ * <p/>
+ * The fourth value of a rotation vector, the scalar component of the quaternion, is left out.  The
+ * replay computes it from the other three, assuming it's positive, like
+ * {@link android.hardware.SensorManager#getRotationMatrixFromVector(float[], float[])} does
+ * with three values.  The quaternions with a negative scalar component are negated before they're
+ * recorded: they describe the same rotation.
+ * <p/>
+ * The records are collected in a buffer, which is written to the file when it's full, so we don't
+ * write to the file for every event.
+ */
+public class SensorTraceRecorder {
+    private static final String TAG = Constants.TAG + SensorTraceRecorder.class.getSimpleName();
+
+    static final int MAGIC = 0x4e4e5354; // "NNST"
+    static final int VERSION = 1;
+    static final int VALUE_COUNT = 3;
+    static final int RECORD_SIZE = 8 + 4 + VALUE_COUNT * 4;
+    private static final int BUFFER_RECORD_COUNT = 256;
+    // Stop recording after this, so we don't fill the storage if recording is left enabled.
+    private static final long MAX_FILE_SIZE = 16 * 1024 * 1024;
+    private static final String TRACE_FOLDER_PATH = "sensor-traces";
+
+    private final File mFile;
+    private final FileOutputStream mOutputStream;
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(RECORD_SIZE * BUFFER_RECORD_COUNT);
+    private long mFileSize;
+    private boolean mIsFull;
+
+    /**
+     * @return a recorder writing to a new file in the sensor trace folder, or null if the file
+     * couldn't be created.
+     */
+    public static SensorTraceRecorder start(Context context) {
+        File folder = context.getExternalFilesDir(TRACE_FOLDER_PATH);
+        if (folder == null) folder = new File(context.getFilesDir(), TRACE_FOLDER_PATH);
+        if (!folder.exists() && !folder.mkdirs()) {
+            Log.v(TAG, "Couldn't find or create the trace folder " + folder);
+            return null;
+        }
+        // The sensors may be registered again in the same second: a unique suffix keeps the previous trace.
+        String filePrefix = "sensor-trace-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date()) + "-";
+        try {
+            SensorTraceRecorder recorder = new SensorTraceRecorder(File.createTempFile(filePrefix, ".trace", folder));
+            Log.v(TAG, "Recording the sensor events to " + recorder.mFile);
+            return recorder;
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't create a trace file in " + folder + ": " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    SensorTraceRecorder(File file) throws IOException {
+        mFile = file;
+        mOutputStream = new FileOutputStream(file);
+        mChannel = mOutputStream.getChannel();
+        mBuffer.putInt(MAGIC).putInt(VERSION);
+    }
+
+    public void record(long timestamp, int sensorType, float[] values) {
+        if (mIsFull) return;
+        if (mBuffer.remaining() < RECORD_SIZE) flush();
+        mBuffer.putLong(timestamp).putInt(sensorType);
+        // Like the sensor listener, we consider any other sensor to be a rotation vector sensor.
+        boolean isNegated = sensorType != Sensor.TYPE_ACCELEROMETER
+                && sensorType != Sensor.TYPE_MAGNETIC_FIELD
+                && values.length > VALUE_COUNT
+                && values[VALUE_COUNT] < 0;
+        for (int i = 0; i < VALUE_COUNT; i++) {
+            float value = i < values.length ? values[i] : 0;
+            mBuffer.putFloat(isNegated ? -value : value);
+        }
+    }
+
+    public void stop() {
+        flush();
+        try {
+            mOutputStream.close();
+        } catch (IOException e) {
+            Log.v(TAG, "Couldn't close " + mFile + ": " + e.getMessage(), e);
+        }
+        Log.v(TAG, "Recorded " + mFileSize + " bytes to " + mFile);
+    }
+
+    private void flush() {
+        mBuffer.flip();
+        try {
+            while (mBuffer.hasRemaining()) {
+                mFileSize += mChannel.write(mBuffer);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't write to " + mFile + ": " + e.getMessage(), e);
+            mIsFull = true;
+        }
+        mBuffer.clear();
+        if (mFileSize >= MAX_FILE_SIZE) {
+            Log.v(TAG, "The trace file " + mFile + " is full");
+            mIsFull = true;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.nounours.android.handheld.nounours.orientation;
+
+/**
+ * Counts how many times per minute the sensors wake us up.
+ * <p/>
+ * Events which arrive close together, like the events of a batch delivered from the sensor FIFO,
+ * count as one wakeup.
+ */
+public class SensorWakeupCounter {
+    // Events received less than this after the previous one belong to the same wakeup.
+    private static final long WAKEUP_GAP_MS = 20;
+    private static final long MINUTE_MS = 60 * 1000;
+
+    private long mLastEventTime = -1;
+    private long mMinuteStartTime = -1;
+    private int mWakeupCount;
+    // The number of wakeups during the last complete minute, or -1 if no minute is complete yet.
+    private int mLastMinuteWakeupCount = -1;
+
+    /**
+     * @param now the time of the event, in milliseconds, from a monotonic clock.
+     */
+    public synchronized void onEvent(long now) {
+        if (mMinuteStartTime < 0) mMinuteStartTime = now;
+        updateMinute(now);
+        if (mLastEventTime < 0 || now - mLastEventTime >= WAKEUP_GAP_MS) mWakeupCount++;
+        mLastEventTime = now;
+    }
+
+    /**
+     * @return the number of wakeups during the last complete minute, or during the current minute
+     * if none is complete yet.
+     */
+    public synchronized int getWakeupsPerMinute(long now) {
+        if (mMinuteStartTime >= 0) updateMinute(now);
+        return mLastMinuteWakeupCount < 0 ? mWakeupCount : mLastMinuteWakeupCount;
+    }
+
+    public synchronized void reset() {
+        mLastEventTime = -1;
+        mMinuteStartTime = -1;
+        mWakeupCount = 0;
+        mLastMinuteWakeupCount = -1;
+    }
+
+    private void updateMinute(long now) {
+        long elapsed = now - mMinuteStartTime;
+        if (elapsed < MINUTE_MS) return;
+        // If more than one minute went by, the minutes after the first one had no wakeups.
+        mLastMinuteWakeupCount = elapsed < 2 * MINUTE_MS ? mWakeupCount : 0;
+        mWakeupCount = 0;
+        mMinuteStartTime = now - elapsed % MINUTE_MS;
+    }
+}
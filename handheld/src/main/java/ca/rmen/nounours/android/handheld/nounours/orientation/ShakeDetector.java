@@ -0,0 +1,139 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.rmen.nounours.android.handheld.nounours.orientation;
+
+/**
+ * Detects shakes from the accelerometer readings.
+ * <p/>
+ * Gravity is removed from the readings with a low-pass filter, and we look at the magnitude of
+ * what remains.  A peak is when this magnitude goes above the threshold, after having gone back
+ * below half of it, or in the opposite direction of the previous peak: at low sensor rates, we may
+ * not get a reading between the two.  A shake is a few peaks close together, so a single bump or
+ * sensor noise isn't a shake.  Once a shake is detected, we don't detect another one for a while.
+ * <p/>
+ * Nothing is allocated per reading: the peak times are kept in a ring buffer.
+ */
+public class ShakeDetector {
+    // How much of the gravity estimate is kept from one reading to the next.
+    private static final float GRAVITY_FILTER_ALPHA = 0.8f;
+    // The peaks of a shake must all be in this window.
+    static final long WINDOW_NS = 1000 * 1000 * 1000L;
+    static final int MIN_PEAK_COUNT = 2;
+    // After a shake, readings are ignored during this time.
+    static final long REFRACTORY_PERIOD_NS = 1500 * 1000 * 1000L;
+    // Even at the fastest sensor rate, there are fewer peaks than this in the window.
+    private static final int MAX_PEAK_COUNT = 64;
+
+    private float mThreshold;
+
+    private boolean mHasGravity;
+    private float mGravityX;
+    private float mGravityY;
+    private float mGravityZ;
+    private boolean mIsAboveThreshold;
+    // The acceleration, without gravity, of the last peak.
+    private float mPeakX;
+    private float mPeakY;
+    private float mPeakZ;
+
+    private final long[] mPeakTimes = new long[MAX_PEAK_COUNT];
+    private int mFirstPeak;
+    private int mPeakCount;
+    private long mLastShakeTime;
+    private boolean mHasShaken;
+
+    /**
+     * @param threshold the magnitude, in m/s^2, which the acceleration, without gravity, must
+     *                  reach to count as a peak.
+     */
+    public ShakeDetector(float threshold) {
+        mThreshold = threshold;
+    }
+
+    public void setThreshold(float threshold) {
+        mThreshold = threshold;
+    }
+
+    /**
+     * @param timestamp the time of the reading, in nanoseconds.
+     * @return true if this reading completes a shake.
+     */
+    public boolean onAcceleration(long timestamp, float x, float y, float z) {
+        // For some reason, the first reading when the app starts may have values of 0.0,
+        // which shouldn't be possible.
+        if (x == 0 && y == 0 && z == 0) return false;
+        if (!mHasGravity) {
+            mGravityX = x;
+            mGravityY = y;
+            mGravityZ = z;
+            mHasGravity = true;
+            return false;
+        }
+        mGravityX = GRAVITY_FILTER_ALPHA * mGravityX + (1 - GRAVITY_FILTER_ALPHA) * x;
+        mGravityY = GRAVITY_FILTER_ALPHA * mGravityY + (1 - GRAVITY_FILTER_ALPHA) * y;
+        mGravityZ = GRAVITY_FILTER_ALPHA * mGravityZ + (1 - GRAVITY_FILTER_ALPHA) * z;
+        if (mHasShaken && timestamp - mLastShakeTime < REFRACTORY_PERIOD_NS) return false;
+
+        float linearX = x - mGravityX;
+        float linearY = y - mGravityY;
+        float linearZ = z - mGravityZ;
+        float magnitude = (float) Math.sqrt(linearX * linearX + linearY * linearY + linearZ * linearZ);
+        if (magnitude < mThreshold) {
+            if (magnitude < mThreshold / 2) mIsAboveThreshold = false;
+            return false;
+        }
+        boolean isReversed = linearX * mPeakX + linearY * mPeakY + linearZ * mPeakZ < 0;
+        if (mIsAboveThreshold && !isReversed) return false;
+
+        mIsAboveThreshold = true;
+        mPeakX = linearX;
+        mPeakY = linearY;
+        mPeakZ = linearZ;
+        addPeak(timestamp);
+        if (mPeakCount < MIN_PEAK_COUNT) return false;
+        mLastShakeTime = timestamp;
+        mHasShaken = true;
+        mPeakCount = 0;
+        return true;
+    }
+
+    /**
+     * Forget the readings received so far, for example if the sensor was paused.  The refractory
+     * period after the last shake still applies.
+     */
+    public void reset() {
+        mHasGravity = false;
+        mIsAboveThreshold = false;
+        mPeakCount = 0;
+    }
+
+    private void addPeak(long timestamp) {
+        // Forget the peaks which are now out of the window.
+        while (mPeakCount > 0 && timestamp - mPeakTimes[mFirstPeak] > WINDOW_NS) {
+            mFirstPeak = (mFirstPeak + 1) % MAX_PEAK_COUNT;
+            mPeakCount--;
+        }
+        if (mPeakCount == MAX_PEAK_COUNT) {
+            mFirstPeak = (mFirstPeak + 1) % MAX_PEAK_COUNT;
+            mPeakCount--;
+        }
+        mPeakTimes[(mFirstPeak + mPeakCount) % MAX_PEAK_COUNT] = timestamp;
+        mPeakCount++;
+    }
+}
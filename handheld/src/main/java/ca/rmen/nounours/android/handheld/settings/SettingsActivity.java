@@ -117,6 +117,12 @@ public class SettingsActivity extends PreferenceActivity {
                         || !canLaunchPreferenceIntent(preference)) {
                     preferencesToHide.add(preference);
                 }
+            }
+            // Videos can only be encoded on newer devices.
+            else if (preference.getKey().endsWith(SharedPreferenceSettings.PREF_EXPORT_FORMAT)) {
+                if (ApiHelper.getAPILevel() < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                    preferencesToHide.add(preference);
+                }
             } else if (preference.getKey().endsWith(SharedPreferenceSettings.PREF_BACKGROUND_COLOR)) {
                 // If we have no transparent themes, it doesn't make sense to have this setting.
                 if (getResources().getStringArray(R.array.transparentThemes).length == 0) {
@@ -20,6 +20,7 @@
 package ca.rmen.nounours.android.handheld.settings;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 
 import ca.rmen.nounours.R;
@@ -29,6 +30,10 @@ import ca.rmen.nounours.android.common.settings.NounoursSettings;
 public final class SharedPreferenceSettings implements NounoursSettings {
     static final String PREF_THEME = "Theme";
     static final String PREF_BACKGROUND_COLOR = "BackgroundColor";
+    static final String PREF_EXPORT_FORMAT = "ExportFormat";
+    public static final String EXPORT_FORMAT_GIF = "gif";
+    public static final String EXPORT_FORMAT_MP4 = "mp4";
+    private static final String PREF_RECORD_SENSOR_TRACE = "RecordSensorTrace";
     private static final String PREF_SOUND_AND_VIBRATE = "SoundAndVibrate";
     private static final String PREF_DIM = "nounourslwp_dim";
     private static final String PREF_GRAYSCALE = "grayscale";
@@ -40,8 +45,15 @@ public final class SharedPreferenceSettings implements NounoursSettings {
     private static final String PREF_IDLE_TIMEOUT = "IdleTimeout2";
 
     private final Context mContext;
-    // To have different app_settings for the app vs lwp, we prefix the app_settings:
-    private final String mPreferencePrefix;
+    private final SharedPreferences mPrefs;
+    // To have different app_settings for the app vs lwp, we prefix the app_settings.
+    // Some settings are read for every frame, so we build the prefixed keys only once.
+    private final String mSoundAndVibrateKey;
+    private final String mDimKey;
+    private final String mGrayscaleKey;
+    private final String mIdleTimeoutKey;
+    private final String mThemeKey;
+    private final String mBackgroundColorKey;
     private final String mDefaultThemeId;
 
     public static NounoursSettings getAppSettings(Context context) {
@@ -56,46 +68,67 @@ public final class SharedPreferenceSettings implements NounoursSettings {
         return new SharedPreferenceSettings(context, PREFIX_DREAM, context.getString(R.string.DEFAULT_LWP_THEME_ID));
     }
 
+    /**
+     * @return the format in which animations are shared: {@link #EXPORT_FORMAT_GIF} or {@link #EXPORT_FORMAT_MP4}.
+     */
+    public static String getExportFormat(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getString(PREFIX_APP + PREF_EXPORT_FORMAT, EXPORT_FORMAT_GIF);
+    }
+
+    /**
+     * @return true if the sensor events should be recorded to a trace file, in the app, the live
+     * wallpaper and the daydream.
+     */
+    public static boolean isSensorTraceEnabled(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(PREFIX_APP + PREF_RECORD_SENSOR_TRACE, false);
+    }
+
     private SharedPreferenceSettings(Context context, String preferencePrefix, String defaultThemeId) {
         mContext = context;
-        mPreferencePrefix = preferencePrefix;
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        mSoundAndVibrateKey = preferencePrefix + PREF_SOUND_AND_VIBRATE;
+        mDimKey = preferencePrefix + PREF_DIM;
+        mGrayscaleKey = preferencePrefix + PREF_GRAYSCALE;
+        mIdleTimeoutKey = preferencePrefix + PREF_IDLE_TIMEOUT;
+        mThemeKey = preferencePrefix + PREF_THEME;
+        mBackgroundColorKey = preferencePrefix + PREF_BACKGROUND_COLOR;
         mDefaultThemeId = defaultThemeId;
     }
 
     @Override
     public boolean isSoundEnabled() {
-        return PreferenceManager.getDefaultSharedPreferences(mContext).getBoolean(mPreferencePrefix + PREF_SOUND_AND_VIBRATE, true);
+        return mPrefs.getBoolean(mSoundAndVibrateKey, true);
     }
 
     @Override
     @SuppressWarnings("SameParameterValue")
     public void setEnableSound(boolean enabled) {
-        PreferenceManager.getDefaultSharedPreferences(mContext).edit().putBoolean(mPreferencePrefix + PREF_SOUND_AND_VIBRATE, enabled).commit();
+        mPrefs.edit().putBoolean(mSoundAndVibrateKey, enabled).commit();
     }
 
     @Override
     public boolean isImageDimmed() {
-        return PreferenceManager.getDefaultSharedPreferences(mContext).getBoolean(mPreferencePrefix + PREF_DIM, false);
+        return mPrefs.getBoolean(mDimKey, false);
     }
 
     @Override
     public boolean isGrayscale() {
-        return PreferenceManager.getDefaultSharedPreferences(mContext).getBoolean(mPreferencePrefix + PREF_GRAYSCALE, false);
+        return mPrefs.getBoolean(mGrayscaleKey, false);
     }
 
     @Override
     public long getIdleTimeout() {
-        return Long.valueOf(PreferenceManager.getDefaultSharedPreferences(mContext).getString(mPreferencePrefix + PREF_IDLE_TIMEOUT, "30000"));
+        return Long.valueOf(mPrefs.getString(mIdleTimeoutKey, "30000"));
     }
 
     @Override
     public String getThemeId() {
-        return PreferenceManager.getDefaultSharedPreferences(mContext).getString(mPreferencePrefix + PREF_THEME, mDefaultThemeId);
+        return mPrefs.getString(mThemeKey, mDefaultThemeId);
     }
 
     @Override
     public int getBackgroundColor() {
-        return PreferenceManager.getDefaultSharedPreferences(mContext).getInt(mPreferencePrefix + PREF_BACKGROUND_COLOR, ResourcesCompat.getColor(mContext, android.R.color.black));
+        return mPrefs.getInt(mBackgroundColorKey, ResourcesCompat.getColor(mContext, android.R.color.black));
     }
 
 }
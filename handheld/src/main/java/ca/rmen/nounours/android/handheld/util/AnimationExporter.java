@@ -0,0 +1,53 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.rmen.nounours.android.handheld.util;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+
+import ca.rmen.nounours.android.common.nounours.cache.ImageCache;
+import ca.rmen.nounours.data.Animation;
+
+/**
+ * Writes an animation to a file, in a given format.
+ */
+interface AnimationExporter {
+
+    /**
+     * @return the extension of the files written by this exporter, without the dot.
+     */
+    String getFileExtension();
+
+    /**
+     * Write the animation to the given file.
+     *
+     * @param imageCache      the cache to get the images of the animation from.
+     * @param backgroundColor the color to draw the images on.
+     * @return false if the animation couldn't be written completely.
+     */
+    boolean export(Context context,
+                   ImageCache imageCache,
+                   int backgroundColor,
+                   Animation animation,
+                   File file,
+                   AnimationUtil.SaveProgressListener listener) throws IOException;
+}
@@ -22,25 +22,28 @@ package ca.rmen.nounours.android.handheld.util;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
-import android.graphics.Paint;
 import android.graphics.drawable.AnimationDrawable;
+import android.os.Build;
 import android.util.Log;
 import android.view.View;
 import android.view.ViewTreeObserver;
 import android.widget.ImageView;
 
-import com.external.nbadal.AnimatedGifEncoder;
-
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 
+import ca.rmen.nounours.BuildConfig;
 import ca.rmen.nounours.android.common.Constants;
+import ca.rmen.nounours.android.common.compat.ApiHelper;
 import ca.rmen.nounours.data.Animation;
 import ca.rmen.nounours.data.AnimationImage;
+import ca.rmen.nounours.data.Image;
 import ca.rmen.nounours.android.common.nounours.cache.ImageCache;
 import ca.rmen.nounours.android.common.settings.NounoursSettings;
 import ca.rmen.nounours.android.handheld.settings.SharedPreferenceSettings;
@@ -48,63 +51,137 @@ import ca.rmen.nounours.android.handheld.settings.SharedPreferenceSettings;
 public class AnimationUtil {
     private static final String TAG = Constants.TAG + AnimationUtil.class.getSimpleName();
     private static final String EXPORT_FOLDER_PATH = "export";
+    private static final String EXPORT_FILE_NAME = "nounours-animation";
+    // Exported files are kept, to share them again without rendering them again.  When the export
+    // folder exceeds this size, the least recently shared files are deleted.
+    private static final long MAX_EXPORT_CACHE_BYTES = 20 * 1024 * 1024;
 
     /**
-     * Save an animation as an animated gif.
+     * Notified of the progress of {@link #saveAnimation}.
+     */
+    public interface SaveProgressListener {
+        /**
+         * Called on the saving thread each time a frame was written to the file.
+         */
+        void onFrameWritten(int framesWritten, int frameCount);
+    }
+
+    /**
+     * @return the file saved earlier for this animation, with the current theme and settings, or
+     * null if there is none.  The file may be in a fallback format, if the animation couldn't be
+     * saved in the export format chosen in the settings.
+     */
+    public static File getCachedAnimation(Context context, Animation animation) {
+        NounoursSettings settings = SharedPreferenceSettings.getAppSettings(context);
+        for (AnimationExporter exporter : getExporters(context)) {
+            File file = getExportFile(context, getExportFileName(settings, animation, exporter));
+            if (file == null || !file.isFile()) continue;
+            // Keep the file at the end of the LRU order.
+            if (!file.setLastModified(System.currentTimeMillis())) {
+                Log.v(TAG, "Couldn't update the date of " + file);
+            }
+            Log.v(TAG, "Found cached file " + file);
+            // The frames encoded while this animation was recorded, if any, won't be needed.
+            RecordingExporter.discardRecording(animation);
+            return file;
+        }
+        return null;
+    }
+
+    /**
+     * Save an animation in the export format chosen in the settings.  If it can't be saved in
+     * that format, it's saved as an animated gif.
+     * <p/>
+     * The animation is written to a temporary file, which replaces the export file only once it
+     * is complete.  The export file is kept in a cache, see {@link #getCachedAnimation}.
      *
-     * @return a file containing the animated gif render of the given animation.
+     * @return a file containing the render of the given animation.
      */
-    public static File saveAnimation(Context context, Animation animation) {
+    public static File saveAnimation(Context context, Animation animation, SaveProgressListener listener) {
         Log.v(TAG, "saveAnimation " + animation);
+        List<AnimationExporter> exporters = getExporters(context);
+        // If this is a recording, its frames may have been encoded while it was recorded.
+        RecordingExporter recordingExporter = RecordingExporter.takeRecording(context, animation);
+        if (recordingExporter != null) exporters.add(0, recordingExporter);
+        for (AnimationExporter exporter : exporters) {
+            File file = saveAnimation(context, animation, exporter, listener);
+            if (file != null) return file;
+        }
+        return null;
+    }
+
+    /**
+     * @return the exporters to try to save an animation with, in order of preference.
+     */
+    private static List<AnimationExporter> getExporters(Context context) {
+        List<AnimationExporter> exporters = new ArrayList<>();
+        if (SharedPreferenceSettings.EXPORT_FORMAT_MP4.equals(SharedPreferenceSettings.getExportFormat(context))
+                && ApiHelper.getAPILevel() >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            exporters.add(new Mp4Exporter());
+        }
+        exporters.add(new GifExporter());
+        return exporters;
+    }
+
+    private static File saveAnimation(Context context, Animation animation, AnimationExporter exporter, SaveProgressListener listener) {
+        NounoursSettings settings = SharedPreferenceSettings.getAppSettings(context);
+        String fileName = getExportFileName(settings, animation, exporter);
+        File file = getExportFile(context, fileName);
+        if (file == null) return null;
         ImageCache imageCache = new ImageCache();
+        File tempFile = null;
+        boolean saved = false;
         try {
-
-            //http://stackoverflow.com/questions/16331437/how-to-create-an-animated-gif-from-jpegs-in-android-development
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            AnimatedGifEncoder encoder = new AnimatedGifEncoder();
-            encoder.start(bos);
-            encoder.setRepeat(0);
-            NounoursSettings settings = SharedPreferenceSettings.getAppSettings(context);
-            int backgroundColor = settings.getBackgroundColor();
-
-            Paint paint = new Paint();
-            // Go through the list of images in the nounours animation, "repeat"
-            // times.
-            for (int i = 0; i < animation.getRepeat(); i++) {
-                for (final AnimationImage animationImage : animation.getImages()) {
-                    Bitmap bitmap = imageCache.getDrawableImage(context, animationImage.getImage());
-                    if (bitmap == null) {
-                        Log.w(TAG, "Couldn't create a bitmap to save the animation.  Probably out of memory");
-                        return null;
-                    }
-                    Bitmap bitmapTemp = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.RGB_565);
-                    Canvas canvas = new Canvas(bitmapTemp);
-                    canvas.drawColor(backgroundColor);
-                    canvas.drawBitmap(bitmap, 0, 0, paint);
-                    int frameDuration = (int) (animation.getInterval() * animationImage.getDuration());
-                    encoder.setDelay(frameDuration);
-                    encoder.addFrame(bitmapTemp);
-                    bitmapTemp.recycle();
-                }
+            tempFile = File.createTempFile(fileName, null, file.getParentFile());
+            // The frames are exported in the full size of the images. The app decodes them for its
+            // surface size, so we don't share its bitmaps: we decode our own.
+            imageCache.useTheme(settings.getThemeId());
+            if (!exporter.export(context, imageCache, settings.getBackgroundColor(), animation, tempFile, listener)) {
+                Log.w(TAG, "Couldn't export the animation with " + exporter.getClass().getSimpleName());
+                return null;
             }
-            Log.v(TAG, "saveAnimation: finish writing gif...");
-            encoder.finish();
-            File file = getExportFile(context, "nounours-animation.gif");
-            Log.v(TAG, "Saving file " + file);
-            if (file == null) return null;
-            FileOutputStream fos = new FileOutputStream(file);
-            InputStream is = new ByteArrayInputStream(bos.toByteArray());
-            FileUtil.copy(is, fos);
+            if (!tempFile.renameTo(file)) {
+                Log.w(TAG, "Couldn't rename " + tempFile + " to " + file);
+                return null;
+            }
+            saved = true;
             Log.v(TAG, "Saved file " + file);
+            trimExportCache(file);
             return file;
         } catch (IOException | OutOfMemoryError e) {
-            Log.w(TAG, "Couldn't write animated gif: " + e.getMessage(), e);
+            Log.w(TAG, "Couldn't write animation: " + e.getMessage(), e);
             return null;
         } finally {
             imageCache.clearImageCache();
+            // Don't leave a partial file behind.
+            if (!saved && tempFile != null && tempFile.exists() && !tempFile.delete()) {
+                Log.v(TAG, "Couldn't delete " + tempFile);
+            }
         }
     }
 
+    /**
+     * Draw the given image on the background color.
+     *
+     * @param frame the bitmap to draw in.  If it's null or doesn't have the size of the image, a
+     *              new bitmap is created.
+     * @return the bitmap containing the frame, or null if we're out of memory.
+     */
+    static Bitmap drawFrame(Context context, ImageCache imageCache, Image image, int backgroundColor, Canvas canvas, Bitmap frame) {
+        Bitmap bitmap = imageCache.getDrawableImage(context, image);
+        if (bitmap == null) {
+            Log.w(TAG, "Couldn't create a bitmap to save the animation.  Probably out of memory");
+            return null;
+        }
+        if (frame == null || frame.getWidth() != bitmap.getWidth() || frame.getHeight() != bitmap.getHeight()) {
+            frame = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.RGB_565);
+        }
+        canvas.setBitmap(frame);
+        canvas.drawColor(backgroundColor);
+        canvas.drawBitmap(bitmap, 0, 0, null);
+        return frame;
+    }
+
     /**
      * Show the imageView and start its animation drawable.
      */
@@ -147,6 +224,73 @@ public class AnimationUtil {
         }
     }
 
+    /**
+     * @return the name of the export file for the given animation.  It contains a hash of
+     * everything which changes the rendering of the animation, so files rendered with other
+     * settings aren't reused.
+     */
+    private static String getExportFileName(NounoursSettings settings, Animation animation, AnimationExporter exporter) {
+        StringBuilder key = new StringBuilder();
+        // The rendering may change from one version of the app to the next.
+        key.append(BuildConfig.VERSION_CODE)
+                .append('|').append(settings.getThemeId())
+                .append('|').append(settings.getBackgroundColor())
+                .append('|').append(animation.getId())
+                .append('|').append(animation.getInterval())
+                .append('|').append(animation.getRepeat());
+        for (AnimationImage animationImage : animation.getImages()) {
+            key.append('|').append(animationImage.getImage().getId())
+                    .append(':').append(animationImage.getDuration());
+        }
+        return EXPORT_FILE_NAME + "-" + hash(key.toString()) + "." + exporter.getFileExtension();
+    }
+
+    private static String hash(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            StringBuilder result = new StringBuilder();
+            for (byte b : digest.digest(key.getBytes("UTF-8"))) {
+                result.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            Log.v(TAG, "Couldn't hash " + key + ": " + e.getMessage());
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+
+    /**
+     * Delete the least recently used files of the export folder, until it fits in
+     * {@link #MAX_EXPORT_CACHE_BYTES}.
+     *
+     * @param savedFile the file which was just saved.  It's never deleted.
+     */
+    private static void trimExportCache(File savedFile) {
+        File[] files = savedFile.getParentFile().listFiles();
+        if (files == null) return;
+        // Most recently used first.
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                long lastModified1 = file1.lastModified();
+                long lastModified2 = file2.lastModified();
+                if (lastModified1 > lastModified2) return -1;
+                if (lastModified1 < lastModified2) return 1;
+                return 0;
+            }
+        });
+        long totalBytes = savedFile.length();
+        for (File file : files) {
+            if (file.equals(savedFile)) continue;
+            totalBytes += file.length();
+            if (totalBytes > MAX_EXPORT_CACHE_BYTES) {
+                totalBytes -= file.length();
+                Log.v(TAG, "Deleting " + file + " from the export cache");
+                if (!file.delete()) Log.v(TAG, "Couldn't delete " + file);
+            }
+        }
+    }
+
     /**
      * @return File in the share folder that we can write to before sharing.
      */
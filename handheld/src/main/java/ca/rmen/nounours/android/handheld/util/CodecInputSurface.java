@@ -0,0 +1,252 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.rmen.nounours.android.handheld.util;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+import android.os.Build;
+import android.view.Surface;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Draws bitmaps on the input surface of a video encoder, with OpenGL ES 2, and sets the
+ * presentation time of each frame.
+ * <p/>
+ * All the methods must be called on the thread which created this object.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+class CodecInputSurface {
+    private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+
+    private static final String VERTEX_SHADER =
+            "attribute vec4 aPosition;\n"
+                    + "attribute vec2 aTextureCoord;\n"
+                    + "varying vec2 vTextureCoord;\n"
+                    + "void main() {\n"
+                    + "  gl_Position = aPosition;\n"
+                    + "  vTextureCoord = aTextureCoord;\n"
+                    + "}\n";
+
+    private static final String FRAGMENT_SHADER =
+            "precision mediump float;\n"
+                    + "varying vec2 vTextureCoord;\n"
+                    + "uniform sampler2D sTexture;\n"
+                    + "void main() {\n"
+                    + "  gl_FragColor = texture2D(sTexture, vTextureCoord);\n"
+                    + "}\n";
+
+    // x, y, u, v of a quad covering the whole surface.  The first row of the bitmap is at the top.
+    private static final float[] QUAD = {
+            -1f, -1f, 0f, 1f,
+            1f, -1f, 1f, 1f,
+            -1f, 1f, 0f, 0f,
+            1f, 1f, 1f, 0f,
+    };
+    private static final int QUAD_STRIDE_BYTES = 4 * 4;
+
+    private final Surface mSurface;
+    private final FloatBuffer mQuad;
+    private EGLDisplay mEGLDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLContext mEGLContext = EGL14.EGL_NO_CONTEXT;
+    private EGLSurface mEGLSurface = EGL14.EGL_NO_SURFACE;
+    private int mProgram;
+    private int mPositionHandle;
+    private int mTextureCoordHandle;
+    private int mTextureId;
+    private int mTextureWidth;
+    private int mTextureHeight;
+
+    /**
+     * @param surface the input surface of the encoder, returned by MediaCodec.createInputSurface().
+     * @throws IllegalStateException if OpenGL couldn't be set up on the surface.  The surface is
+     *                               released in this case.
+     */
+    CodecInputSurface(Surface surface) {
+        mSurface = surface;
+        mQuad = ByteBuffer.allocateDirect(QUAD.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        mQuad.put(QUAD).position(0);
+        try {
+            setupEgl();
+            setupGl();
+        } catch (RuntimeException e) {
+            // The caller won't get an object to release.
+            release();
+            throw e;
+        }
+    }
+
+    private void setupEgl() {
+        mEGLDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        if (mEGLDisplay == EGL14.EGL_NO_DISPLAY) throw new IllegalStateException("No EGL display");
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(mEGLDisplay, version, 0, version, 1)) {
+            mEGLDisplay = EGL14.EGL_NO_DISPLAY;
+            throw new IllegalStateException("Couldn't initialize EGL");
+        }
+
+        int[] configAttributes = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL_RECORDABLE_ANDROID, 1,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] configCount = new int[1];
+        if (!EGL14.eglChooseConfig(mEGLDisplay, configAttributes, 0, configs, 0, configs.length, configCount, 0)
+                || configCount[0] == 0) {
+            throw new IllegalStateException("No recordable EGL config");
+        }
+
+        int[] contextAttributes = {
+                EGL14.EGL_CONTEXT_CLIENT_VERSION, 2,
+                EGL14.EGL_NONE
+        };
+        mEGLContext = EGL14.eglCreateContext(mEGLDisplay, configs[0], EGL14.EGL_NO_CONTEXT, contextAttributes, 0);
+        checkEglError("eglCreateContext");
+
+        int[] surfaceAttributes = {
+                EGL14.EGL_NONE
+        };
+        mEGLSurface = EGL14.eglCreateWindowSurface(mEGLDisplay, configs[0], mSurface, surfaceAttributes, 0);
+        checkEglError("eglCreateWindowSurface");
+
+        if (!EGL14.eglMakeCurrent(mEGLDisplay, mEGLSurface, mEGLSurface, mEGLContext)) {
+            throw new IllegalStateException("eglMakeCurrent failed");
+        }
+    }
+
+    private void setupGl() {
+        mProgram = GLES20.glCreateProgram();
+        GLES20.glAttachShader(mProgram, loadShader(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER));
+        GLES20.glAttachShader(mProgram, loadShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER));
+        GLES20.glLinkProgram(mProgram);
+        int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(mProgram, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] != GLES20.GL_TRUE) {
+            throw new IllegalStateException("Couldn't link program: " + GLES20.glGetProgramInfoLog(mProgram));
+        }
+        mPositionHandle = GLES20.glGetAttribLocation(mProgram, "aPosition");
+        mTextureCoordHandle = GLES20.glGetAttribLocation(mProgram, "aTextureCoord");
+
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        mTextureId = textures[0];
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureId);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        checkGlError("setupGl");
+    }
+
+    private static int loadShader(int type, String source) {
+        int shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+        int[] compiled = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
+        if (compiled[0] == 0) {
+            throw new IllegalStateException("Couldn't compile shader: " + GLES20.glGetShaderInfoLog(shader));
+        }
+        return shader;
+    }
+
+    /**
+     * Draw the bitmap, stretched to the size of the surface.
+     */
+    void drawBitmap(Bitmap bitmap) {
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureId);
+        // Only reallocate the texture if the bitmap size changed.
+        if (bitmap.getWidth() == mTextureWidth && bitmap.getHeight() == mTextureHeight) {
+            GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, bitmap);
+        } else {
+            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+            mTextureWidth = bitmap.getWidth();
+            mTextureHeight = bitmap.getHeight();
+        }
+        GLES20.glUseProgram(mProgram);
+        mQuad.position(0);
+        GLES20.glVertexAttribPointer(mPositionHandle, 2, GLES20.GL_FLOAT, false, QUAD_STRIDE_BYTES, mQuad);
+        GLES20.glEnableVertexAttribArray(mPositionHandle);
+        mQuad.position(2);
+        GLES20.glVertexAttribPointer(mTextureCoordHandle, 2, GLES20.GL_FLOAT, false, QUAD_STRIDE_BYTES, mQuad);
+        GLES20.glEnableVertexAttribArray(mTextureCoordHandle);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        checkGlError("drawBitmap");
+    }
+
+    /**
+     * Set the presentation time of the frame which will be sent by the next {@link #swapBuffers()}.
+     */
+    void setPresentationTime(long presentationTimeNs) {
+        EGLExt.eglPresentationTimeANDROID(mEGLDisplay, mEGLSurface, presentationTimeNs);
+        checkEglError("eglPresentationTimeANDROID");
+    }
+
+    /**
+     * Send the frame which was drawn to the encoder.
+     */
+    void swapBuffers() {
+        if (!EGL14.eglSwapBuffers(mEGLDisplay, mEGLSurface)) {
+            throw new IllegalStateException("eglSwapBuffers failed: " + EGL14.eglGetError());
+        }
+    }
+
+    void release() {
+        if (mEGLDisplay != EGL14.EGL_NO_DISPLAY) {
+            EGL14.eglMakeCurrent(mEGLDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+            if (mEGLSurface != EGL14.EGL_NO_SURFACE) EGL14.eglDestroySurface(mEGLDisplay, mEGLSurface);
+            if (mEGLContext != EGL14.EGL_NO_CONTEXT) EGL14.eglDestroyContext(mEGLDisplay, mEGLContext);
+            EGL14.eglReleaseThread();
+            EGL14.eglTerminate(mEGLDisplay);
+        }
+        mEGLDisplay = EGL14.EGL_NO_DISPLAY;
+        mEGLContext = EGL14.EGL_NO_CONTEXT;
+        mEGLSurface = EGL14.EGL_NO_SURFACE;
+        mSurface.release();
+    }
+
+    private static void checkEglError(String operation) {
+        int error = EGL14.eglGetError();
+        if (error != EGL14.EGL_SUCCESS) {
+            throw new IllegalStateException(operation + ": EGL error 0x" + Integer.toHexString(error));
+        }
+    }
+
+    private static void checkGlError(String operation) {
+        int error = GLES20.glGetError();
+        if (error != GLES20.GL_NO_ERROR) {
+            throw new IllegalStateException(operation + ": GL error 0x" + Integer.toHexString(error));
+        }
+    }
+}
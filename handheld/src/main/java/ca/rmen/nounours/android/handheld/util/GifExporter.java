@@ -0,0 +1,257 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.rmen.nounours.android.handheld.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.util.Log;
+
+import com.external.nbadal.AnimatedGifEncoder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ca.rmen.nounours.android.common.Constants;
+import ca.rmen.nounours.android.common.nounours.cache.ImageCache;
+import ca.rmen.nounours.data.Animation;
+import ca.rmen.nounours.data.AnimationImage;
+import ca.rmen.nounours.data.Image;
+
+/**
+ * Writes an animation as an animated gif.
+ * <p/>
+ * The distinct images of the animation are rendered, quantized and compressed in parallel on
+ * a pool of threads, while the calling thread writes the frames, in order, to the file.
+ */
+class GifExporter implements AnimationExporter {
+    private static final String TAG = Constants.TAG + GifExporter.class.getSimpleName();
+    private static final int MAX_ENCODER_THREADS = 4;
+    // Leave the frame in place: the next frame is drawn over it.
+    private static final int DISPOSE_DO_NOT_DISPOSE = 1;
+
+    @Override
+    public String getFileExtension() {
+        return "gif";
+    }
+
+    @Override
+    public boolean export(Context context,
+                          ImageCache imageCache,
+                          int backgroundColor,
+                          Animation animation,
+                          File file,
+                          AnimationUtil.SaveProgressListener listener) throws IOException {
+        FrameEncoder frameEncoder = new FrameEncoder(context, imageCache, backgroundColor);
+        ExecutorService executor = Executors.newFixedThreadPool(getEncoderThreadCount());
+        try {
+            Map<String, Image> images = new LinkedHashMap<>();
+            for (AnimationImage animationImage : animation.getImages()) {
+                images.put(animationImage.getImage().getId(), animationImage.getImage());
+            }
+
+            // All the frames show the same nounours on the same background: train one
+            // color table on all of the animation's images, rather than one per frame.
+            frameEncoder.encoder.setGlobalPalette(images.size());
+            List<Future<Boolean>> paletteSamples = new ArrayList<>(images.size());
+            int sampleIndex = 0;
+            for (Image image : images.values()) {
+                paletteSamples.add(executor.submit(frameEncoder.newPaletteSampleTask(image, sampleIndex++)));
+            }
+            for (Future<Boolean> paletteSample : paletteSamples) {
+                if (!paletteSample.get()) return false;
+            }
+            if (!frameEncoder.encoder.buildGlobalPalette()) {
+                Log.w(TAG, "Couldn't build the color table");
+                return false;
+            }
+            Map<String, Future<AnimatedGifEncoder.EncodedFrame>> encodedFrames = new HashMap<>();
+            return writeAnimation(frameEncoder, executor, encodedFrames, animation, file, listener);
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Couldn't encode a frame: " + e.getCause(), e.getCause());
+            return false;
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Interrupted while writing animated gif", e);
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            // Cancel the frames which aren't encoded yet, if we're aborting.
+            executor.shutdownNow();
+            // Close the file if we stopped in the middle.
+            frameEncoder.encoder.finish();
+        }
+    }
+
+    /**
+     * Write the animation to the file.  The frames which aren't in encodedFrames yet are encoded
+     * on the executor.
+     *
+     * @param frameEncoder  an encoder whose global palette is already built.
+     * @param encodedFrames the frames encoded so far, by {@link FrameEncoder#getFrameKey}.
+     * @return false if the file couldn't be written.  The caller must finish the encoder.
+     */
+    static boolean writeAnimation(FrameEncoder frameEncoder,
+                                  ExecutorService executor,
+                                  Map<String, Future<AnimatedGifEncoder.EncodedFrame>> encodedFrames,
+                                  Animation animation,
+                                  File file,
+                                  AnimationUtil.SaveProgressListener listener) throws ExecutionException, InterruptedException {
+        AnimatedGifEncoder encoder = frameEncoder.encoder;
+        //http://stackoverflow.com/questions/16331437/how-to-create-an-animated-gif-from-jpegs-in-android-development
+        if (!encoder.start(file.getPath())) {
+            Log.w(TAG, "Couldn't open " + file);
+            return false;
+        }
+        // Loop forever.
+        encoder.setRepeat(0);
+
+        // Only the first frame is complete. The next ones only contain what changed since the
+        // previous frame, drawn over it. A transition between two images may appear several
+        // times in the animation: we only encode it once.
+        encoder.setDispose(DISPOSE_DO_NOT_DISPOSE);
+        List<String> frameKeys = new ArrayList<>(animation.getImages().size());
+        Image previousImage = null;
+        for (AnimationImage animationImage : animation.getImages()) {
+            Image image = animationImage.getImage();
+            String frameKey = FrameEncoder.getFrameKey(previousImage, image);
+            frameKeys.add(frameKey);
+            if (!encodedFrames.containsKey(frameKey)) {
+                encodedFrames.put(frameKey, executor.submit(frameEncoder.newFrameTask(previousImage, image)));
+            }
+            previousImage = image;
+        }
+
+        // Since the gif loops forever, playing the nounours animation "repeat" times in
+        // the gif would look exactly like playing it once: we only write it once.
+        int frameCount = animation.getImages().size();
+        int framesWritten = 0;
+        for (AnimationImage animationImage : animation.getImages()) {
+            int frameDuration = (int) (animation.getInterval() * animationImage.getDuration());
+            encoder.setDelay(frameDuration);
+            // Wait for this frame, while the next ones are being encoded.
+            AnimatedGifEncoder.EncodedFrame encodedFrame = encodedFrames.get(frameKeys.get(framesWritten)).get();
+            if (!encoder.addEncodedFrame(encodedFrame)) {
+                Log.w(TAG, "Couldn't write a frame to " + file);
+                return false;
+            }
+            listener.onFrameWritten(++framesWritten, frameCount);
+        }
+        Log.v(TAG, "writeAnimation: finish writing gif...");
+        if (!encoder.finish()) {
+            Log.w(TAG, "Couldn't finish writing " + file);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of threads to use to encode the frames of an animation.
+     */
+    private static int getEncoderThreadCount() {
+        return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_ENCODER_THREADS));
+    }
+
+    /**
+     * Creates the tasks which render and encode the frames of an animation.  Each thread
+     * running these tasks reuses its own bitmaps and buffers for all the frames.
+     */
+    static class FrameEncoder {
+        final AnimatedGifEncoder encoder = new AnimatedGifEncoder();
+        private final Context mContext;
+        private final ImageCache mImageCache;
+        private final int mBackgroundColor;
+        private final ThreadLocal<FrameScratch> mFrameScratches = new ThreadLocal<FrameScratch>() {
+            @Override
+            protected FrameScratch initialValue() {
+                return new FrameScratch();
+            }
+        };
+
+        FrameEncoder(Context context, ImageCache imageCache, int backgroundColor) {
+            mContext = context;
+            mImageCache = imageCache;
+            mBackgroundColor = backgroundColor;
+        }
+
+        /**
+         * @return the key of the frame which shows the given image after the previous one.
+         */
+        static String getFrameKey(Image previousImage, Image image) {
+            return (previousImage == null ? "" : previousImage.getId()) + "->" + image.getId();
+        }
+
+        /**
+         * @return a task which adds the given image to the pixels the global palette is trained on.
+         */
+        Callable<Boolean> newPaletteSampleTask(final Image image, final int sampleIndex) {
+            return new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    FrameScratch scratch = mFrameScratches.get();
+                    scratch.frame = AnimationUtil.drawFrame(mContext, mImageCache, image, mBackgroundColor, scratch.canvas, scratch.frame);
+                    if (scratch.frame == null) return false;
+                    encoder.addPaletteSample(scratch.frame, sampleIndex, scratch.encoderBuffers);
+                    return true;
+                }
+            };
+        }
+
+        /**
+         * @param previousImage the image of the previous frame, or null if this is the first frame.
+         * @return a task which encodes what changed from the previous image to the given one.
+         */
+        Callable<AnimatedGifEncoder.EncodedFrame> newFrameTask(final Image previousImage, final Image image) {
+            return new Callable<AnimatedGifEncoder.EncodedFrame>() {
+                @Override
+                public AnimatedGifEncoder.EncodedFrame call() throws IOException {
+                    FrameScratch scratch = mFrameScratches.get();
+                    scratch.frame = AnimationUtil.drawFrame(mContext, mImageCache, image, mBackgroundColor, scratch.canvas, scratch.frame);
+                    if (scratch.frame == null) return null;
+                    Bitmap previousFrame = null;
+                    if (previousImage != null) {
+                        previousFrame = scratch.previousFrame = AnimationUtil.drawFrame(mContext, mImageCache, previousImage, mBackgroundColor, scratch.canvas, scratch.previousFrame);
+                        if (previousFrame == null) return null;
+                    }
+                    return encoder.encodeFrame(scratch.frame, previousFrame, scratch.encoderBuffers);
+                }
+            };
+        }
+    }
+
+    /**
+     * The bitmaps and buffers an encoder thread reuses from one frame to the next.
+     */
+    private static class FrameScratch {
+        private final Canvas canvas = new Canvas();
+        private final AnimatedGifEncoder.FrameBuffers encoderBuffers = new AnimatedGifEncoder.FrameBuffers();
+        private Bitmap frame;
+        private Bitmap previousFrame;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.rmen.nounours.android.handheld.util;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import ca.rmen.nounours.android.common.Constants;
+import ca.rmen.nounours.android.common.nounours.cache.ImageCache;
+import ca.rmen.nounours.data.Animation;
+import ca.rmen.nounours.data.AnimationImage;
+
+/**
+ * Exports an animation as an H.264 mp4 video.
+ * <p/>
+ * The frames are drawn with OpenGL on the input surface of the encoder, so they don't need to be
+ * converted to YUV by us, and each frame gets its exact presentation time: a frame which is shown
+ * longer just lasts longer in the video, instead of being repeated.  Hardware encoders are
+ * preferred over software ones.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+class Mp4Exporter implements AnimationExporter {
+    private static final String TAG = Constants.TAG + Mp4Exporter.class.getSimpleName();
+
+    private static final String MIME_TYPE = "video/avc";
+    // The frames have their own presentation times: this is just a hint for the encoder.
+    private static final int FRAME_RATE = 30;
+    private static final int I_FRAME_INTERVAL_S = 1;
+    private static final int BIT_RATE_PER_PIXEL = 3;
+    private static final long DEQUEUE_TIMEOUT_US = 10000;
+    // How long we wait for output from the encoder, once we've signaled the end of the stream.
+    private static final long END_OF_STREAM_TIMEOUT_MS = 5000;
+    private static final long NS_PER_MS = 1000000L;
+
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+    private int mTrackIndex;
+    private boolean mIsMuxerStarted;
+
+    @Override
+    public String getFileExtension() {
+        return "mp4";
+    }
+
+    @Override
+    public boolean export(Context context,
+                          ImageCache imageCache,
+                          int backgroundColor,
+                          Animation animation,
+                          File file,
+                          AnimationUtil.SaveProgressListener listener) throws IOException {
+        List<AnimationImage> images = animation.getImages();
+        if (images.isEmpty()) return false;
+        Bitmap firstImage = imageCache.getDrawableImage(context, images.get(0).getImage());
+        if (firstImage == null) return false;
+
+        // Most encoders only accept even dimensions.
+        int width = firstImage.getWidth() & ~1;
+        int height = firstImage.getHeight() & ~1;
+        MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, width, height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, width * height * BIT_RATE_PER_PIXEL);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL_S);
+
+        MediaCodec encoder = createEncoder(format);
+        if (encoder == null) {
+            Log.w(TAG, "No encoder available for " + format);
+            return false;
+        }
+        CodecInputSurface inputSurface = null;
+        MediaMuxer muxer = null;
+        mIsMuxerStarted = false;
+        try {
+            inputSurface = new CodecInputSurface(encoder.createInputSurface());
+            encoder.start();
+            muxer = new MediaMuxer(file.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+
+            // A video isn't looped by most players, so we write all the repetitions of the animation.
+            int repeat = Math.max(1, animation.getRepeat());
+            int frameCount = images.size() * repeat;
+            int framesWritten = 0;
+            long presentationTimeNs = 0;
+            Canvas canvas = new Canvas();
+            Bitmap frame = null;
+            for (int i = 0; i < repeat; i++) {
+                for (AnimationImage animationImage : images) {
+                    frame = AnimationUtil.drawFrame(context, imageCache, animationImage.getImage(), backgroundColor, canvas, frame);
+                    if (frame == null) return false;
+                    drainEncoder(encoder, muxer, false);
+                    inputSurface.drawBitmap(frame);
+                    inputSurface.setPresentationTime(presentationTimeNs);
+                    inputSurface.swapBuffers();
+                    presentationTimeNs += (long) (animation.getInterval() * animationImage.getDuration()) * NS_PER_MS;
+                    listener.onFrameWritten(++framesWritten, frameCount);
+                }
+            }
+            // The duration of the last frame is the time until the next one: send it again at the
+            // end of the animation, so it's not cut short.
+            if (frame != null) {
+                inputSurface.drawBitmap(frame);
+                inputSurface.setPresentationTime(presentationTimeNs);
+                inputSurface.swapBuffers();
+            }
+            drainEncoder(encoder, muxer, false);
+            encoder.signalEndOfInputStream();
+            drainEncoder(encoder, muxer, true);
+            return mIsMuxerStarted;
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            Log.w(TAG, "Couldn't encode the animation: " + e.getMessage(), e);
+            return false;
+        } finally {
+            release(encoder, inputSurface, muxer);
+        }
+    }
+
+    /**
+     * Write all the available output of the encoder to the muxer.
+     *
+     * @param endOfStream if true, wait for the end of the stream.  Otherwise, return as soon as
+     *                    there's no output available.
+     * @throws IllegalStateException if we're waiting for the end of the stream, and the encoder
+     *                               hasn't given any output for {@link #END_OF_STREAM_TIMEOUT_MS}.
+     */
+    @SuppressWarnings("deprecation")
+    private void drainEncoder(MediaCodec encoder, MediaMuxer muxer, boolean endOfStream) {
+        ByteBuffer[] outputBuffers = encoder.getOutputBuffers();
+        long deadline = SystemClock.uptimeMillis() + END_OF_STREAM_TIMEOUT_MS;
+        while (true) {
+            int index = encoder.dequeueOutputBuffer(mBufferInfo, DEQUEUE_TIMEOUT_US);
+            if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                if (!endOfStream) return;
+                if (SystemClock.uptimeMillis() > deadline) {
+                    throw new IllegalStateException("The encoder didn't signal the end of the stream");
+                }
+            } else if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                outputBuffers = encoder.getOutputBuffers();
+            } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                if (mIsMuxerStarted) throw new IllegalStateException("The output format changed twice");
+                mTrackIndex = muxer.addTrack(encoder.getOutputFormat());
+                muxer.start();
+                mIsMuxerStarted = true;
+            } else if (index >= 0) {
+                // The codec config was already given to the muxer, with the output format.
+                if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) mBufferInfo.size = 0;
+                if (mBufferInfo.size != 0 && mIsMuxerStarted) {
+                    ByteBuffer data = outputBuffers[index];
+                    data.position(mBufferInfo.offset);
+                    data.limit(mBufferInfo.offset + mBufferInfo.size);
+                    muxer.writeSampleData(mTrackIndex, data, mBufferInfo);
+                }
+                encoder.releaseOutputBuffer(index, false);
+                if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) return;
+                deadline = SystemClock.uptimeMillis() + END_OF_STREAM_TIMEOUT_MS;
+            }
+        }
+    }
+
+    private void release(MediaCodec encoder, CodecInputSurface inputSurface, MediaMuxer muxer) {
+        try {
+            encoder.stop();
+        } catch (IllegalStateException e) {
+            Log.v(TAG, "Couldn't stop the encoder: " + e.getMessage());
+        }
+        encoder.release();
+        if (inputSurface != null) inputSurface.release();
+        if (muxer != null) {
+            try {
+                if (mIsMuxerStarted) muxer.stop();
+            } catch (IllegalStateException e) {
+                Log.v(TAG, "Couldn't stop the muxer: " + e.getMessage());
+            }
+            muxer.release();
+        }
+    }
+
+    /**
+     * @return an encoder configured with the given format, or null if no encoder supports it.
+     */
+    private static MediaCodec createEncoder(MediaFormat format) {
+        for (String name : getEncoderNames()) {
+            MediaCodec encoder = null;
+            try {
+                encoder = MediaCodec.createByCodecName(name);
+                encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+                Log.v(TAG, "Using encoder " + name);
+                return encoder;
+            } catch (IOException | RuntimeException e) {
+                Log.v(TAG, "Couldn't configure encoder " + name + ": " + e.getMessage());
+                if (encoder != null) encoder.release();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the names of the H.264 encoders of the device, hardware encoders first.
+     */
+    @SuppressWarnings("deprecation")
+    private static List<String> getEncoderNames() {
+        List<String> hardwareEncoders = new ArrayList<>();
+        List<String> softwareEncoders = new ArrayList<>();
+        for (int i = 0; i < MediaCodecList.getCodecCount(); i++) {
+            MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
+            if (!codecInfo.isEncoder()) continue;
+            for (String type : codecInfo.getSupportedTypes()) {
+                if (MIME_TYPE.equalsIgnoreCase(type)) {
+                    String name = codecInfo.getName();
+                    if (isSoftwareCodec(name)) softwareEncoders.add(name);
+                    else hardwareEncoders.add(name);
+                    break;
+                }
+            }
+        }
+        hardwareEncoders.addAll(softwareEncoders);
+        return hardwareEncoders;
+    }
+
+    private static boolean isSoftwareCodec(String name) {
+        return name.startsWith("OMX.google.") || name.startsWith("c2.android.");
+    }
+}
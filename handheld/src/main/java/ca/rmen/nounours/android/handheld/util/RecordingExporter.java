@@ -0,0 +1,257 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.rmen.nounours.android.handheld.util;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import com.external.nbadal.AnimatedGifEncoder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import ca.rmen.nounours.android.common.Constants;
+import ca.rmen.nounours.android.common.nounours.cache.ImageCache;
+import ca.rmen.nounours.android.common.settings.NounoursSettings;
+import ca.rmen.nounours.android.handheld.settings.SharedPreferenceSettings;
+import ca.rmen.nounours.data.Animation;
+import ca.rmen.nounours.data.Image;
+import ca.rmen.nounours.data.Theme;
+
+/**
+ * Encodes the frames of a recording as a gif while the user is still recording, so that the gif
+ * can be written as soon as the recording stops.
+ * <p/>
+ * Each transition between two images shown during the recording is encoded once, on a
+ * background thread.  When the recording is saved, the frames which were encoded in advance
+ * are written directly, and only the missing ones are encoded.
+ * <p/>
+ * There is at most one recording at a time: the static methods are called by the activity
+ * which records, and {@link AnimationUtil} picks up the recording when it's saved.
+ */
+public class RecordingExporter implements AnimationExporter {
+    private static final String TAG = Constants.TAG + RecordingExporter.class.getSimpleName();
+    // Enough images to get all the colors of a theme, without rendering all of them.
+    private static final int MAX_PALETTE_SAMPLES = 16;
+
+    private static RecordingExporter sRecordingExporter;
+
+    private final String mThemeId;
+    private final int mBackgroundColor;
+    private final ImageCache mImageCache = new ImageCache();
+    private final GifExporter.FrameEncoder mFrameEncoder;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    mWorkerTid = Process.myTid();
+                    // Don't slow down the nounours while it's being recorded.
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, TAG);
+        }
+    });
+    // The thread id of the executor's thread, once it has started.
+    private volatile int mWorkerTid;
+    private final Map<String, Future<AnimatedGifEncoder.EncodedFrame>> mEncodedFrames = new ConcurrentHashMap<>();
+    private final Future<Boolean> mGlobalPalette;
+    // Only accessed with the class lock held.
+    private Image mPreviousImage;
+    private String mAnimationId;
+
+    /**
+     * Start encoding a new recording of the given theme, if the recordings are shared as gifs.
+     * A previous recording which wasn't saved is discarded.
+     */
+    public static synchronized void startRecording(Context context, Theme theme) {
+        if (sRecordingExporter != null) sRecordingExporter.release();
+        sRecordingExporter = null;
+        if (!SharedPreferenceSettings.EXPORT_FORMAT_GIF.equals(SharedPreferenceSettings.getExportFormat(context))) return;
+        NounoursSettings settings = SharedPreferenceSettings.getAppSettings(context);
+        sRecordingExporter = new RecordingExporter(context.getApplicationContext(), theme, settings.getBackgroundColor());
+    }
+
+    /**
+     * Encode the transition to this image in the background, if it wasn't encoded already.
+     * To be called for each image displayed while recording.
+     */
+    public static synchronized void onImageRecorded(Image image) {
+        if (sRecordingExporter != null) sRecordingExporter.addImage(image);
+    }
+
+    /**
+     * @param animation the animation recorded, which will be saved.
+     */
+    public static synchronized void stopRecording(Animation animation) {
+        if (sRecordingExporter == null) return;
+        if (animation == null) {
+            sRecordingExporter.release();
+            sRecordingExporter = null;
+        } else {
+            sRecordingExporter.mAnimationId = animation.getId();
+        }
+    }
+
+    /**
+     * @return the exporter of the given recorded animation, if its frames were encoded while it
+     * was being recorded, with the current settings.  Once taken, the exporter is released by
+     * its {@link #export}.
+     */
+    static synchronized RecordingExporter takeRecording(Context context, Animation animation) {
+        RecordingExporter recordingExporter = sRecordingExporter;
+        if (recordingExporter == null || recordingExporter.mAnimationId == null) return null;
+        sRecordingExporter = null;
+        NounoursSettings settings = SharedPreferenceSettings.getAppSettings(context);
+        if (!recordingExporter.mAnimationId.equals(animation.getId())
+                || !recordingExporter.mThemeId.equals(settings.getThemeId())
+                || recordingExporter.mBackgroundColor != settings.getBackgroundColor()
+                || !SharedPreferenceSettings.EXPORT_FORMAT_GIF.equals(SharedPreferenceSettings.getExportFormat(context))) {
+            Log.v(TAG, "The frames encoded while recording don't match " + animation);
+            recordingExporter.release();
+            return null;
+        }
+        return recordingExporter;
+    }
+
+    /**
+     * Release the frames encoded while the given animation was recorded, if any.  To be called
+     * when the animation won't be exported with {@link #takeRecording}.
+     */
+    static synchronized void discardRecording(Animation animation) {
+        if (sRecordingExporter == null || !animation.getId().equals(sRecordingExporter.mAnimationId)) return;
+        Log.v(TAG, "Discarding the frames encoded while recording " + animation);
+        sRecordingExporter.release();
+        sRecordingExporter = null;
+    }
+
+    private RecordingExporter(Context context, Theme theme, int backgroundColor) {
+        mThemeId = theme.getId();
+        mBackgroundColor = backgroundColor;
+        mImageCache.useTheme(mThemeId);
+        mFrameEncoder = new GifExporter.FrameEncoder(context, mImageCache, backgroundColor);
+
+        // We don't know yet which images will be recorded: train the color table on a
+        // sample of the theme's images.
+        List<Image> paletteImages = getPaletteImages(theme);
+        mFrameEncoder.encoder.setGlobalPalette(paletteImages.size());
+        for (int i = 0; i < paletteImages.size(); i++) {
+            mExecutor.submit(mFrameEncoder.newPaletteSampleTask(paletteImages.get(i), i));
+        }
+        mGlobalPalette = mExecutor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return mFrameEncoder.encoder.buildGlobalPalette();
+            }
+        });
+    }
+
+    /**
+     * @return the default image of the theme, and other images spread over the theme's images.
+     */
+    private static List<Image> getPaletteImages(Theme theme) {
+        List<Image> images = new ArrayList<>(theme.getImages().values());
+        List<Image> paletteImages = new ArrayList<>(MAX_PALETTE_SAMPLES);
+        Image defaultImage = theme.getDefaultImage();
+        if (defaultImage != null) paletteImages.add(defaultImage);
+        int step = Math.max(1, images.size() / MAX_PALETTE_SAMPLES);
+        for (int i = 0; i < images.size() && paletteImages.size() < MAX_PALETTE_SAMPLES; i += step) {
+            Image image = images.get(i);
+            if (image != defaultImage) paletteImages.add(image);
+        }
+        return paletteImages;
+    }
+
+    private void addImage(Image image) {
+        if (mAnimationId != null || image == mPreviousImage) return;
+        String frameKey = GifExporter.FrameEncoder.getFrameKey(mPreviousImage, image);
+        if (!mEncodedFrames.containsKey(frameKey)) {
+            mEncodedFrames.put(frameKey, mExecutor.submit(mFrameEncoder.newFrameTask(mPreviousImage, image)));
+        }
+        mPreviousImage = image;
+    }
+
+    @Override
+    public String getFileExtension() {
+        return "gif";
+    }
+
+    /**
+     * Write the recording, with the frames encoded while recording.  The image cache and
+     * background color given here are ignored: the ones of the recording are used.
+     */
+    @Override
+    public boolean export(Context context,
+                          ImageCache imageCache,
+                          int backgroundColor,
+                          Animation animation,
+                          File file,
+                          AnimationUtil.SaveProgressListener listener) {
+        try {
+            if (!mGlobalPalette.get()) {
+                Log.w(TAG, "Couldn't build the color table");
+                return false;
+            }
+            Log.v(TAG, mEncodedFrames.size() + " frames were encoded while recording");
+            // The user is now waiting for the remaining frames: raise the priority of the thread
+            // now, rather than after the frames already queued on it.
+            raiseWorkerPriority();
+            return GifExporter.writeAnimation(mFrameEncoder, mExecutor, mEncodedFrames, animation, file, listener);
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Couldn't encode a frame: " + e.getCause(), e.getCause());
+            return false;
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Interrupted while writing animated gif", e);
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            release();
+        }
+    }
+
+    private void raiseWorkerPriority() {
+        // The thread has started: it built the color table.
+        int workerTid = mWorkerTid;
+        try {
+            Process.setThreadPriority(workerTid, Process.THREAD_PRIORITY_DEFAULT);
+        } catch (IllegalArgumentException | SecurityException e) {
+            Log.v(TAG, "Couldn't raise the priority of thread " + workerTid + ": " + e.getMessage());
+        }
+    }
+
+    private void release() {
+        mExecutor.shutdownNow();
+        // Close the file if we stopped in the middle.
+        mFrameEncoder.encoder.finish();
+        mImageCache.clearImageCache();
+    }
+}
@@ -8,10 +8,13 @@ package com.external.nbadal;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
 import android.graphics.Canvas;
-import android.graphics.Paint;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 
 //noinspection ConstantConditions
 @SuppressWarnings({"CanBeFinal", "UnusedReturnValue", "unused", "JavaDoc", "JavadocReference", "PointlessBitwiseExpression"})
@@ -61,6 +64,20 @@ public class AnimatedGifEncoder {
 
 	  protected int sample = 10; // default sample interval for quantizer
 
+	  protected boolean globalPalette = false; // one color table for all frames
+
+	  protected int paletteSampleCount; // number of frames the global palette is trained on
+
+	  protected byte[][] paletteSamples; // BGR pixels of each sample, to train the global palette
+
+	  protected byte[] paletteLookup; // 15-bit RGB to global palette index
+
+	  protected FrameBuffers buffers = new FrameBuffers(); // reused for each frame added
+
+	  protected NeuQuant neuQuant; // reused for each frame's color table
+
+	  protected byte[] localColorTab; // reused for each frame's color table
+
 	  /**
 	   * Sets the delay time between each frame, or changes it for subsequent frames
 	   * (applies to last frame added).
@@ -115,6 +132,67 @@ public class AnimatedGifEncoder {
 	    transparent = c;
 	  }
 
+	  /**
+	   * Uses one color table, written once, for all the frames, instead of a color
+	   * table per frame. The color table is trained on pixels of the frames given
+	   * to <code>addPaletteSample</code>, or on the first frame if none were
+	   * given. Must be invoked before the first image is added.
+	   * 
+	   * @param sampleCount
+	   *          the number of frames which will be given to
+	   *          <code>addPaletteSample</code>. Each of them contributes 1 pixel
+	   *          out of sampleCount, so that the color table is trained on about
+	   *          one frame's worth of pixels.
+	   */
+	  public void setGlobalPalette(int sampleCount) {
+	    globalPalette = true;
+	    paletteSampleCount = Math.max(sampleCount, 1);
+	    paletteSamples = new byte[paletteSampleCount][];
+	    paletteLookup = null;
+	  }
+
+	  /**
+	   * Adds a frame to the pixels the global color table is trained on. Must be
+	   * invoked before the global palette is built. May be invoked from several
+	   * threads: the palette only depends on the samples and their index, not on
+	   * the order in which they were given.
+	   * 
+	   * @param im
+	   *          a frame representative of the frames which will be added.
+	   * @param sampleIndex
+	   *          the index of this sample, between 0 and sampleCount - 1.
+	   * @param frameBuffers
+	   *          buffers which the calling thread reuses from one frame to the
+	   *          next.
+	   */
+	  public void addPaletteSample(Bitmap im, int sampleIndex, FrameBuffers frameBuffers) {
+	    if (!globalPalette || (im == null) || (sampleIndex < 0) || (sampleIndex >= paletteSampleCount)) {
+	      return;
+	    }
+	    int[] data = frameBuffers.data = getImageData(im, frameBuffers.data);
+	    int nPix = im.getWidth() * im.getHeight();
+	    // Interleave the samples: don't take the same pixels of each frame.
+	    int offset = sampleIndex % paletteSampleCount;
+	    byte[] samplePixels = new byte[3 * ((nPix - offset + paletteSampleCount - 1) / paletteSampleCount)];
+	    int k = 0;
+	    for (int i = offset; i < nPix; i += paletteSampleCount) {
+	      int td = data[i];
+	      samplePixels[k++] = (byte) ((td >> 0) & 0xFF);
+	      samplePixels[k++] = (byte) ((td >> 8) & 0xFF);
+	      samplePixels[k++] = (byte) ((td >> 16) & 0xFF);
+	    }
+	    synchronized (this) {
+	      if (paletteLookup != null) {
+	        return;
+	      }
+	      if (!sizeSet) {
+	        // use the samples' size
+	        setSize(im.getWidth(), im.getHeight());
+	      }
+	      paletteSamples[sampleIndex] = samplePixels;
+	    }
+	  }
+
 	  /**
 	   * Adds next GIF frame. The frame is not written immediately, but is actually
 	   * deferred until the next frame is received so that timing data can be
@@ -139,28 +217,226 @@ public class AnimatedGifEncoder {
 	      image = im;
 	      getImagePixels(); // convert to correct format if necessary
 	      analyzePixels(); // build color table & map pixels
-	      if (firstFrame) {
-	        writeLSD(); // logical screen descriptior
-	        writePalette(); // global color table
-	        if (repeat >= 0) {
-	          // use NS app extension to indicate reps
-	          writeNetscapeExt();
+	      writeFrame();
+	    } catch (IOException e) {
+	      ok = false;
+	    }
+
+	    return ok;
+	  }
+
+	  /**
+	   * Quantizes and compresses a frame with the global color table, without
+	   * writing it. Unlike the other methods of this class, this may be invoked
+	   * from several threads at once, to encode frames in parallel.
+	   * 
+	   * @param im
+	   *          BufferedImage containing frame to encode.
+	   * @return the frame, to be written with <code>addEncodedFrame</code>.
+	   * @throws IllegalStateException
+	   *           if the global palette wasn't built yet.
+	   */
+	  public EncodedFrame encodeFrame(Bitmap im) throws IOException {
+	    return encodeFrame(im, null);
+	  }
+
+	  /**
+	   * Quantizes and compresses the part of a frame which differs from the
+	   * previous frame, without writing it. The frame is reduced to the bounding
+	   * box of the pixels which changed, and within it, the pixels which didn't
+	   * change are transparent. The frame must be written with disposal code 1
+	   * (do not dispose), so that the previous frame shows through. May be
+	   * invoked from several threads at once, like <code>encodeFrame(im)</code>.
+	   * 
+	   * @param im
+	   *          BufferedImage containing frame to encode.
+	   * @param previous
+	   *          BufferedImage containing the frame which will be displayed
+	   *          before this one, or null to encode the whole frame.
+	   * @return the frame, to be written with <code>addEncodedFrame</code>.
+	   * @throws IllegalStateException
+	   *           if the global palette wasn't built yet.
+	   */
+	  public EncodedFrame encodeFrame(Bitmap im, Bitmap previous) throws IOException {
+	    return encodeFrame(im, previous, new FrameBuffers());
+	  }
+
+	  /**
+	   * Quantizes and compresses the part of a frame which differs from the
+	   * previous frame, like <code>encodeFrame(im, previous)</code>. Apart from
+	   * the returned frame, nothing is allocated once the buffers have grown to
+	   * the frame size.
+	   * 
+	   * @param frameBuffers
+	   *          buffers which the calling thread reuses from one frame to the
+	   *          next.
+	   */
+	  public EncodedFrame encodeFrame(Bitmap im, Bitmap previous, FrameBuffers frameBuffers) throws IOException {
+	    byte[] palette;
+	    byte[] lookup;
+	    synchronized (this) {
+	      if (!globalPalette || (paletteLookup == null)) {
+	        throw new IllegalStateException("The global palette must be built before encoding frames");
+	      }
+	      palette = colorTab;
+	      lookup = paletteLookup;
+	    }
+	    byte[] frameIndexedPixels = frameBuffers.indexedPixels = mapToGlobalPalette(im, lookup, frameBuffers, frameBuffers.indexedPixels);
+	    if (previous == null) {
+	      return compressFrame(palette, -1, 0, 0, width, height, frameIndexedPixels, frameBuffers);
+	    }
+	    byte[] previousIndexedPixels = frameBuffers.previousIndexedPixels = mapToGlobalPalette(previous, lookup, frameBuffers, frameBuffers.previousIndexedPixels);
+
+	    // Find the bounding box of the changed pixels.
+	    int left = width, top = height, right = -1, bottom = -1;
+	    for (int j = 0; j < height; j++) {
+	      int row = j * width;
+	      for (int i = 0; i < width; i++) {
+	        if (frameIndexedPixels[row + i] != previousIndexedPixels[row + i]) {
+	          if (i < left) left = i;
+	          if (i > right) right = i;
+	          if (j < top) top = j;
+	          bottom = j;
+	        }
+	      }
+	    }
+	    if (right < 0) {
+	      // Nothing changed: we still need a frame, for its delay. Repeat one pixel.
+	      return compressFrame(palette, -1, 0, 0, 1, 1, frameIndexedPixels, frameBuffers);
+	    }
+	    int boxWidth = right - left + 1;
+	    int boxHeight = bottom - top + 1;
+
+	    // Use a palette entry which none of the changed pixels have, as the
+	    // transparent color.
+	    boolean[] usedIndexes = frameBuffers.usedIndexes;
+	    Arrays.fill(usedIndexes, false);
+	    for (int j = top; j <= bottom; j++) {
+	      int row = j * width;
+	      for (int i = left; i <= right; i++) {
+	        byte index = frameIndexedPixels[row + i];
+	        if (index != previousIndexedPixels[row + i]) {
+	          usedIndexes[index & 0xff] = true;
 	        }
 	      }
-	      writeGraphicCtrlExt(); // write graphic control extension
-	      writeImageDesc(); // image descriptor
-	      if (!firstFrame) {
-	        writePalette(); // local color table
+	    }
+	    int frameTransIndex = -1;
+	    for (int i = 0; i < usedIndexes.length; i++) {
+	      if (!usedIndexes[i]) {
+	        frameTransIndex = i;
+	        break;
 	      }
-	      writePixels(); // encode and write pixel data
-	      firstFrame = false;
+	    }
+
+	    byte[] boxIndexedPixels = frameBuffers.boxIndexedPixels = ensureCapacity(frameBuffers.boxIndexedPixels, boxWidth * boxHeight);
+	    int k = 0;
+	    for (int j = top; j <= bottom; j++) {
+	      int row = j * width;
+	      for (int i = left; i <= right; i++) {
+	        byte index = frameIndexedPixels[row + i];
+	        if ((frameTransIndex >= 0) && (index == previousIndexedPixels[row + i])) {
+	          index = (byte) frameTransIndex;
+	        }
+	        boxIndexedPixels[k++] = index;
+	      }
+	    }
+	    return compressFrame(palette, frameTransIndex, left, top, boxWidth, boxHeight, boxIndexedPixels, frameBuffers);
+	  }
+
+	  /**
+	   * Returns the global palette index of each pixel of the image
+	   * 
+	   * @param result
+	   *          the array to reuse for the result, if it's big enough.
+	   */
+	  protected byte[] mapToGlobalPalette(Bitmap im, byte[] lookup, FrameBuffers frameBuffers, byte[] result) {
+	    int[] data = frameBuffers.data = getImageData(getSizedImage(im, frameBuffers), frameBuffers.data);
+	    int len = width * height;
+	    result = ensureCapacity(result, len);
+	    for (int i = 0; i < len; i++) {
+	      int c = data[i];
+	      result[i] = lookup[((c >> 9) & 0x7c00) | ((c >> 6) & 0x3e0) | ((c >> 3) & 0x1f)];
+	    }
+	    return result;
+	  }
+
+	  /**
+	   * LZW-compresses indexed pixels of a frame
+	   * 
+	   * @param frameTransIndex
+	   *          the transparent color index, or -1 if no pixel is transparent.
+	   */
+	  protected EncodedFrame compressFrame(byte[] palette, int frameTransIndex, int frameX, int frameY, int frameWidth, int frameHeight, byte[] frameIndexedPixels, FrameBuffers frameBuffers) throws IOException {
+	    byte[] pixelData = compressPixels(frameWidth, frameHeight, frameIndexedPixels, 8, frameBuffers);
+	    return new EncodedFrame(palette, frameTransIndex >= 0, Math.max(frameTransIndex, 0), frameX, frameY, frameWidth, frameHeight, pixelData);
+	  }
+
+	  /**
+	   * LZW-compresses indexed pixels, reusing the given buffers
+	   */
+	  protected static byte[] compressPixels(int frameWidth, int frameHeight, byte[] frameIndexedPixels, int frameColorDepth, FrameBuffers frameBuffers) throws IOException {
+	    frameBuffers.compressedPixels.reset();
+	    frameBuffers.getLZWEncoder(frameWidth, frameHeight, frameIndexedPixels, frameColorDepth).encode(frameBuffers.compressedPixels);
+	    return frameBuffers.compressedPixels.toByteArray();
+	  }
+
+	  /**
+	   * Adds next GIF frame, which was already encoded. The current delay and
+	   * disposal code are used.
+	   * 
+	   * @param frame
+	   *          a frame returned by <code>encodeFrame</code>.
+	   * @return false if the frame is null, or if the write failed.
+	   */
+	  public boolean addEncodedFrame(EncodedFrame frame) {
+	    if ((frame == null) || !started) {
+	      return false;
+	    }
+	    boolean ok = true;
+	    colorTab = frame.colorTab;
+	    try {
+	      writeFrame(frame.pixelData, frame.x, frame.y, frame.width, frame.height, frame.transparent, frame.transIndex);
 	    } catch (IOException e) {
 	      ok = false;
 	    }
-
 	    return ok;
 	  }
 
+	  /**
+	   * Encodes and writes the current frame, with its color table.
+	   */
+	  protected void writeFrame() throws IOException {
+	    writeFrame(null, x, y, width, height, transparent != -1, transIndex);
+	  }
+
+	  /**
+	   * Writes the current frame's color table, and the given part of the frame.
+	   * 
+	   * @param pixelData
+	   *          the already encoded pixel data, or null to encode it now.
+	   */
+	  protected void writeFrame(byte[] pixelData, int frameX, int frameY, int frameWidth, int frameHeight, boolean frameTransparent, int frameTransIndex) throws IOException {
+	    if (firstFrame) {
+	      writeLSD(); // logical screen descriptior
+	      writePalette(); // global color table
+	      if (repeat >= 0) {
+	        // use NS app extension to indicate reps
+	        writeNetscapeExt();
+	      }
+	    }
+	    writeGraphicCtrlExt(frameTransparent, frameTransIndex); // write graphic control extension
+	    writeImageDesc(frameX, frameY, frameWidth, frameHeight); // image descriptor
+	    if (!firstFrame && !globalPalette) {
+	      writePalette(); // local color table
+	    }
+	    if (pixelData == null) {
+	      writePixels(); // encode and write pixel data
+	    } else {
+	      out.write(pixelData, 0, pixelData.length);
+	    }
+	    firstFrame = false;
+	  }
+
 	  /**
 	   * Flushes any pending data and closes output file. If writing to an
 	   * OutputStream, the stream is not closed.
@@ -173,12 +449,16 @@ public class AnimatedGifEncoder {
 	    try {
 	      out.write(0x3b); // gif trailer
 	      out.flush();
-	      if (closeStream) {
-	        out.close();
-	      }
 	    } catch (IOException e) {
 	      ok = false;
 	    }
+	    if (closeStream) {
+	      try {
+	        out.close();
+	      } catch (IOException e) {
+	        ok = false;
+	      }
+	    }
 
 	    // reset for subsequent use
 	    transIndex = 0;
@@ -186,7 +466,13 @@ public class AnimatedGifEncoder {
 	    image = null;
 	    pixels = null;
 	    indexedPixels = null;
+	    buffers = new FrameBuffers();
+	    neuQuant = null;
 	    colorTab = null;
+	    localColorTab = null;
+	    globalPalette = false;
+	    paletteSamples = null;
+	    paletteLookup = null;
 	    closeStream = false;
 	    firstFrame = true;
 
@@ -278,16 +564,55 @@ public class AnimatedGifEncoder {
 	    return started = ok;
 	  }
 
+	  /**
+	   * Initiates writing of a GIF file with the specified name. The file is
+	   * written through a buffer, frame by frame, and closed by <code>finish()</code>.
+	   * 
+	   * @param file
+	   *          String containing output file name.
+	   * @return false if open or initial write failed.
+	   */
+	  public boolean start(String file) {
+	    boolean ok = true;
+	    try {
+	      out = new BufferedOutputStream(new FileOutputStream(file));
+	      ok = start(out);
+	      closeStream = true;
+	    } catch (IOException e) {
+	      ok = false;
+	    }
+	    if (!ok && (out != null)) {
+	      // don't leak the file if the header couldn't be written
+	      try {
+	        out.close();
+	      } catch (IOException e) {
+	        // nothing more we can do
+	      }
+	      out = null;
+	      closeStream = false;
+	    }
+	    return started = ok;
+	  }
+
 	  /**
 	   * Analyzes image colors and creates color map.
 	   */
 	  protected void analyzePixels() {
-	    int len = pixels.length;
+	    if (globalPalette) {
+	      analyzePixelsWithGlobalPalette();
+	      return;
+	    }
+	    int len = 3 * width * height;
 	    int nPix = len / 3;
-	    indexedPixels = new byte[nPix];
-	    NeuQuant nq = new NeuQuant(pixels, len, sample);
+	    indexedPixels = ensureCapacity(indexedPixels, nPix);
 	    // initialize quantizer
-	    colorTab = nq.process(); // create reduced palette
+	    if (neuQuant == null) {
+	      neuQuant = new NeuQuant(pixels, len, sample);
+	    } else {
+	      neuQuant.init(pixels, len, sample);
+	    }
+	    NeuQuant nq = neuQuant;
+	    colorTab = localColorTab = nq.process(localColorTab); // create reduced palette
 	    // convert map from BGR to RGB
 	    for (int i = 0; i < colorTab.length; i += 3) {
 	      byte temp = colorTab[i];
@@ -302,7 +627,6 @@ public class AnimatedGifEncoder {
 	      usedEntry[index] = true;
 	      indexedPixels[i] = (byte) index;
 	    }
-	    pixels = null;
 	    colorDepth = 8;
 	    palSize = 7;
 	    // get closest match to transparent color if specified
@@ -311,6 +635,101 @@ public class AnimatedGifEncoder {
 	    }
 	  }
 
+	  /**
+	   * Maps image pixels to the global color table, training it first if this
+	   * is the first frame.
+	   */
+	  protected void analyzePixelsWithGlobalPalette() {
+	    if (paletteLookup == null) {
+	      buildGlobalPalette();
+	    }
+	    int nPix = width * height;
+	    indexedPixels = ensureCapacity(indexedPixels, nPix);
+	    int k = 0;
+	    for (int i = 0; i < nPix; i++) {
+	      int b = pixels[k++] & 0xff;
+	      int g = pixels[k++] & 0xff;
+	      int r = pixels[k++] & 0xff;
+	      indexedPixels[i] = paletteLookup[((r >> 3) << 10) | ((g >> 3) << 5) | (b >> 3)];
+	    }
+	    colorDepth = 8;
+	    palSize = 7;
+	  }
+
+	  /**
+	   * Trains the global color table on the sample pixels, and precomputes the
+	   * palette index of every 15-bit color, so that frames are mapped with a
+	   * table lookup instead of a search in the network. Invoked with the first
+	   * frame if it wasn't invoked before.
+	   * 
+	   * @return false if not in global palette mode, or if there are no pixels to
+	   *         train the color table on.
+	   */
+	  public synchronized boolean buildGlobalPalette() {
+	    if (!globalPalette) {
+	      return false;
+	    }
+	    if (paletteLookup != null) {
+	      return true;
+	    }
+	    byte[] samplePixels = getPaletteSamplePixels();
+	    if (samplePixels == null) {
+	      return false;
+	    }
+	    // The current frame's pixels may be in a bigger, reused, array.
+	    int len = (samplePixels == pixels) ? 3 * width * height : samplePixels.length;
+	    paletteSamples = null;
+	    NeuQuant nq = new NeuQuant(samplePixels, len, sample);
+	    colorTab = nq.process();
+	    // convert map from BGR to RGB
+	    for (int i = 0; i < colorTab.length; i += 3) {
+	      byte temp = colorTab[i];
+	      colorTab[i] = colorTab[i + 2];
+	      colorTab[i + 2] = temp;
+	      usedEntry[i / 3] = false;
+	    }
+	    paletteLookup = new byte[1 << 15];
+	    for (int rgb = 0; rgb < paletteLookup.length; rgb++) {
+	      // expand the 5-bit components to 8 bits
+	      int r = ((rgb >> 10) & 0x1f) << 3 | ((rgb >> 12) & 0x7);
+	      int g = ((rgb >> 5) & 0x1f) << 3 | ((rgb >> 7) & 0x7);
+	      int b = (rgb & 0x1f) << 3 | ((rgb >> 2) & 0x7);
+	      int index = nq.map(b, g, r);
+	      usedEntry[index] = true;
+	      paletteLookup[rgb] = (byte) index;
+	    }
+	    // get closest match to transparent color if specified
+	    if (transparent != -1) {
+	      transIndex = findClosest(transparent);
+	    }
+	    return true;
+	  }
+
+	  /**
+	   * Returns the pixels of the palette samples, in the order of their index,
+	   * or the current frame's pixels if there are no samples.
+	   */
+	  protected byte[] getPaletteSamplePixels() {
+	    int len = 0;
+	    for (byte[] samplePixels : paletteSamples) {
+	      if (samplePixels != null) {
+	        len += samplePixels.length;
+	      }
+	    }
+	    if (len == 0) {
+	      return pixels;
+	    }
+	    byte[] result = new byte[len];
+	    int pos = 0;
+	    for (byte[] samplePixels : paletteSamples) {
+	      if (samplePixels != null) {
+	        System.arraycopy(samplePixels, 0, result, pos, samplePixels.length);
+	        pos += samplePixels.length;
+	      }
+	    }
+	    return result;
+	  }
+
 	  /**
 	   * Returns index of palette color closest to c
 	   * 
@@ -343,18 +762,11 @@ public class AnimatedGifEncoder {
 	   * Extracts image pixels into byte array "pixels"
 	   */
 	  protected void getImagePixels() {
-	    int w = image.getWidth();
-	    int h = image.getHeight();
-	    if ((w != width) || (h != height)) {
-	      // create new image with right size/format
-	      Bitmap temp = Bitmap.createBitmap(width, height, Config.RGB_565);
-	      Canvas g = new Canvas(temp);
-	      g.drawBitmap(image, 0, 0, new Paint());
-	      image = temp;
-	    }
-	    int[] data = getImageData(image);
-		pixels = new byte[data.length * 3];
-		for (int i = 0; i < data.length; i++) {
+	    image = getSizedImage(image, buffers);
+	    int[] data = buffers.data = getImageData(image, buffers.data);
+	    int nPix = width * height;
+		pixels = ensureCapacity(pixels, nPix * 3);
+		for (int i = 0; i < nPix; i++) {
 			int td = data[i];
 			int tind = i * 3;
 			pixels[tind++] = (byte) ((td >> 0) & 0xFF);
@@ -362,24 +774,60 @@ public class AnimatedGifEncoder {
 			pixels[tind] = (byte) ((td >> 16) & 0xFF);
 		}
 	  }
-	  protected int[] getImageData(Bitmap img) {
+	  /**
+	   * Returns the image, or a copy of it with the GIF frame size
+	   */
+	  protected Bitmap getSizedImage(Bitmap im, FrameBuffers frameBuffers) {
+	    int w = im.getWidth();
+	    int h = im.getHeight();
+	    if ((w != width) || (h != height)) {
+	      // draw the image in a bitmap with right size/format
+	      Bitmap temp = frameBuffers.sizedImage;
+	      if ((temp == null) || (temp.getWidth() != width) || (temp.getHeight() != height)) {
+	        temp = frameBuffers.sizedImage = Bitmap.createBitmap(width, height, Config.RGB_565);
+	        frameBuffers.sizedImageCanvas.setBitmap(temp);
+	      }
+	      temp.eraseColor(0xff000000);
+	      frameBuffers.sizedImageCanvas.drawBitmap(im, 0, 0, null);
+	      return temp;
+	    }
+	    return im;
+	  }
+
+	  /**
+	   * Returns the pixels of the image, in the given array if it's big enough
+	   */
+	  protected static int[] getImageData(Bitmap img, int[] data) {
 			int w = img.getWidth();
 			int h = img.getHeight();
 
-			int[] data = new int[w * h];
+			if ((data == null) || (data.length < w * h)) {
+			  data = new int[w * h];
+			}
 			img.getPixels(data, 0, w, 0, 0, w, h);
 			return data;
 		}
 
+	  protected static byte[] ensureCapacity(byte[] array, int length) {
+	    return ((array == null) || (array.length < length)) ? new byte[length] : array;
+	  }
+
 	  /**
 	   * Writes Graphic Control Extension
 	   */
 	  protected void writeGraphicCtrlExt() throws IOException {
+	    writeGraphicCtrlExt(transparent != -1, transIndex);
+	  }
+
+	  /**
+	   * Writes Graphic Control Extension, with the given transparency
+	   */
+	  protected void writeGraphicCtrlExt(boolean frameTransparent, int frameTransIndex) throws IOException {
 	    out.write(0x21); // extension introducer
 	    out.write(0xf9); // GCE label
 	    out.write(4); // data block size
 	    int transp, disp;
-	    if (transparent == -1) {
+	    if (!frameTransparent) {
 	      transp = 0;
 	      disp = 0; // dispose = no action
 	    } else {
@@ -398,7 +846,7 @@ public class AnimatedGifEncoder {
 	        transp); // 8 transparency flag
 
 	    writeShort(delay); // delay x 1/100 sec
-	    out.write(transIndex); // transparent color index
+	    out.write(frameTransIndex); // transparent color index
 	    out.write(0); // block terminator
 	  }
 
@@ -406,14 +854,21 @@ public class AnimatedGifEncoder {
 	   * Writes Image Descriptor
 	   */
 	  protected void writeImageDesc() throws IOException {
+	    writeImageDesc(x, y, width, height);
+	  }
+
+	  /**
+	   * Writes Image Descriptor, for the given part of the frame
+	   */
+	  protected void writeImageDesc(int frameX, int frameY, int frameWidth, int frameHeight) throws IOException {
 	    out.write(0x2c); // image separator
-	    writeShort(x); // image position x,y = 0,0
-	    writeShort(y);
-	    writeShort(width); // image size
-	    writeShort(height);
+	    writeShort(frameX); // image position x,y = 0,0
+	    writeShort(frameY);
+	    writeShort(frameWidth); // image size
+	    writeShort(frameHeight);
 	    // packed fields
-	    if (firstFrame) {
-	      // no LCT - GCT is used for first (or only) frame
+	    if (firstFrame || globalPalette) {
+	      // no LCT - GCT is used for first (or only) frame, or for all frames
 	      out.write(0);
 	    } else {
 	      // specify normal LCT
@@ -471,8 +926,73 @@ public class AnimatedGifEncoder {
 	   * Encodes and writes pixel data
 	   */
 	  protected void writePixels() throws IOException {
-	    LZWEncoder encoder = new LZWEncoder(width, height, indexedPixels, colorDepth);
-	    encoder.encode(out);
+	    buffers.getLZWEncoder(width, height, indexedPixels, colorDepth).encode(out);
+	  }
+
+	  /**
+	   * Buffers reused from one frame to the next, so that encoding a frame
+	   * doesn't allocate anything once they have grown to the frame size. Each
+	   * thread encoding frames needs its own buffers.
+	   */
+	  public static class FrameBuffers {
+	    int[] data;
+
+	    byte[] indexedPixels;
+
+	    byte[] previousIndexedPixels;
+
+	    byte[] boxIndexedPixels;
+
+	    final boolean[] usedIndexes = new boolean[256];
+
+	    Bitmap sizedImage;
+
+	    final Canvas sizedImageCanvas = new Canvas();
+
+	    final ByteArrayOutputStream compressedPixels = new ByteArrayOutputStream();
+
+	    LZWEncoder lzwEncoder;
+
+	    LZWEncoder getLZWEncoder(int width, int height, byte[] pixels, int color_depth) {
+	      if (lzwEncoder == null) {
+	        lzwEncoder = new LZWEncoder(width, height, pixels, color_depth);
+	      } else {
+	        lzwEncoder.reset(width, height, pixels, color_depth);
+	      }
+	      return lzwEncoder;
+	    }
+	  }
+
+	  /**
+	   * A frame which was already quantized and compressed.
+	   */
+	  public static class EncodedFrame {
+	    final byte[] colorTab;
+
+	    final boolean transparent;
+
+	    final int transIndex;
+
+	    final int x;
+
+	    final int y;
+
+	    final int width;
+
+	    final int height;
+
+	    final byte[] pixelData;
+
+	    EncodedFrame(byte[] colorTab, boolean transparent, int transIndex, int x, int y, int width, int height, byte[] pixelData) {
+	      this.colorTab = colorTab;
+	      this.transparent = transparent;
+	      this.transIndex = transIndex;
+	      this.x = x;
+	      this.y = y;
+	      this.width = width;
+	      this.height = height;
+	      this.pixelData = pixelData;
+	    }
 	  }
 
 	  /**
@@ -616,6 +1136,8 @@ class NeuQuant {
 
 	  protected int[] netindex = new int[256];
 
+	  protected int[] colorMapIndex = new int[netsize]; /* reused by colorMap */
+
 	  /* for network lookup - really 256 */
 
 	  protected int[] bias = new int[netsize];
@@ -632,6 +1154,11 @@ class NeuQuant {
 	   * -----------------------------------------------------------------------
 	   */
 	  public NeuQuant(byte[] thepic, int len, int sample) {
+	    init(thepic, len, sample);
+	  }
+
+	  /* Reinitializes the network for another picture, reusing its arrays */
+	  public void init(byte[] thepic, int len, int sample) {
 
 	    int i;
 	    int[] p;
@@ -640,9 +1167,13 @@ class NeuQuant {
 	    lengthcount = len;
 	    samplefac = sample;
 
-	    network = new int[netsize][];
+	    if (network == null) {
+	      network = new int[netsize][];
+	    }
 	    for (i = 0; i < netsize; i++) {
-	      network[i] = new int[4];
+	      if (network[i] == null) {
+	        network[i] = new int[4];
+	      }
 	      p = network[i];
 	      p[0] = p[1] = p[2] = (i << (netbiasshift + 8)) / netsize;
 	      freq[i] = intbias / netsize; /* 1/netsize */
@@ -651,8 +1182,15 @@ class NeuQuant {
 	  }
 
 	  public byte[] colorMap() {
-	    byte[] map = new byte[3 * netsize];
-	    int[] index = new int[netsize];
+	    return colorMap(null);
+	  }
+
+	  /* Returns the color map, in the given array if it has the right size */
+	  public byte[] colorMap(byte[] map) {
+	    if ((map == null) || (map.length != 3 * netsize)) {
+	      map = new byte[3 * netsize];
+	    }
+	    int[] index = colorMapIndex;
 	    for (int i = 0; i < netsize; i++)
 	      index[network[i][3]] = i;
 	    int k = 0;
@@ -869,10 +1407,15 @@ class NeuQuant {
 	  }
 
 	  public byte[] process() {
+	    return process(null);
+	  }
+
+	  /* Like process(), but returns the color map in the given array if it has the right size */
+	  public byte[] process(byte[] map) {
 	    learn();
 	    unbiasnet();
 	    inxbuild();
-	    return colorMap();
+	    return colorMap(map);
 	  }
 
 	  /*
@@ -1114,6 +1657,17 @@ class NeuQuant {
 	    initCodeSize = Math.max(2, color_depth);
 	  }
 
+	  // Reuse this encoder for another image
+	  void reset(int width, int height, byte[] pixels, int color_depth) {
+	    imgW = width;
+	    imgH = height;
+	    pixAry = pixels;
+	    initCodeSize = Math.max(2, color_depth);
+	    cur_accum = 0;
+	    cur_bits = 0;
+	    a_count = 0;
+	  }
+
 	  // Add a character to the end of the current packet, and if it is 254
 	  // characters, flush the packet to disk.
 	  void char_out(byte c, OutputStream outs) throws IOException {
@@ -0,0 +1,167 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.rmen.nounours.android.handheld.nounours.orientation;
+
+import android.content.Context;
+import android.os.Handler;
+import android.view.SurfaceView;
+
+import org.junit.Assert;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ca.rmen.nounours.R;
+import ca.rmen.nounours.android.common.nounours.AndroidNounours;
+import ca.rmen.nounours.android.common.nounours.EmptySoundHandler;
+import ca.rmen.nounours.android.common.nounours.EmptyVibrateHandler;
+import ca.rmen.nounours.android.common.nounours.NounoursRenderer;
+import ca.rmen.nounours.android.common.nounours.ThemeLoadListener;
+import ca.rmen.nounours.android.common.nounours.cache.ImageCache;
+import ca.rmen.nounours.android.common.nounours.cache.NounoursResourceCache;
+import ca.rmen.nounours.android.common.settings.NounoursSettings;
+import ca.rmen.nounours.data.Image;
+import ca.rmen.nounours.data.Theme;
+
+/**
+ * A nounours with a real theme, which doesn't draw anything or play any animation.  It remembers
+ * the images it displayed, and the shakes.
+ */
+class FakeNounours extends AndroidNounours {
+    private static final long THEME_LOAD_TIMEOUT_MS = 30000;
+
+    // Consecutive displays of the same image are only kept once.
+    final List<String> displayedImageIds = new ArrayList<>();
+    int shakeCount;
+
+    /**
+     * @return a nounours showing the default theme of the app, once the theme is loaded.
+     */
+    static FakeNounours create(Context context) throws InterruptedException {
+        String themeId = context.getString(R.string.DEFAULT_APP_THEME_ID);
+        FakeNounours nounours = new FakeNounours(context, new ReplaySettings(themeId));
+        // Load the theme, if it's not being loaded already.
+        nounours.reloadSettings();
+        long timeout = System.currentTimeMillis() + THEME_LOAD_TIMEOUT_MS;
+        while (!nounours.isThemeLoaded(themeId)) {
+            Assert.assertTrue("Couldn't load theme " + themeId, System.currentTimeMillis() < timeout);
+            // The theme is loaded in the background, and the end of the loading is posted to the UI thread.
+            ShadowLooper.runUiThreadTasks();
+            Thread.sleep(10);
+        }
+        nounours.clear();
+        return nounours;
+    }
+
+    private FakeNounours(Context context, NounoursSettings settings) {
+        super("REPLAY",
+                context,
+                new Handler(),
+                settings,
+                new SurfaceView(context).getHolder(),
+                new NounoursRenderer(),
+                new NounoursResourceCache(context, settings, new ImageCache()),
+                new EmptySoundHandler(),
+                new EmptyVibrateHandler(),
+                NO_OP_THEME_LOAD_LISTENER);
+    }
+
+    void clear() {
+        displayedImageIds.clear();
+        shakeCount = 0;
+    }
+
+    @Override
+    protected void displayImage(Image image) {
+        if (image == null) return;
+        String imageId = image.getId();
+        if (displayedImageIds.isEmpty() || !imageId.equals(displayedImageIds.get(displayedImageIds.size() - 1))) {
+            displayedImageIds.add(imageId);
+        }
+    }
+
+    @Override
+    public void onShake() {
+        // Don't play the shake animation: we replay the events much faster than real time.
+        shakeCount++;
+    }
+
+    private boolean isThemeLoaded(String themeId) {
+        Theme theme = getCurrentTheme();
+        return theme != null && themeId.equals(theme.getId()) && !isLoading();
+    }
+
+    private static final ThemeLoadListener NO_OP_THEME_LOAD_LISTENER = new ThemeLoadListener() {
+        @Override
+        public void onThemeLoadStart(int max, String message) {
+        }
+
+        @Override
+        public void onThemeLoadProgress(int progress, int max, String message) {
+        }
+
+        @Override
+        public void onThemeLoadComplete() {
+        }
+    };
+
+    private static class ReplaySettings implements NounoursSettings {
+        private final String mThemeId;
+
+        private ReplaySettings(String themeId) {
+            mThemeId = themeId;
+        }
+
+        @Override
+        public boolean isSoundEnabled() {
+            return false;
+        }
+
+        @Override
+        public void setEnableSound(boolean enabled) {
+        }
+
+        @Override
+        public boolean isImageDimmed() {
+            return false;
+        }
+
+        @Override
+        public boolean isGrayscale() {
+            return false;
+        }
+
+        @Override
+        public long getIdleTimeout() {
+            return 30000;
+        }
+
+        @Override
+        public String getThemeId() {
+            return mThemeId;
+        }
+
+        @Override
+        public int getBackgroundColor() {
+            return 0xff000000;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.rmen.nounours.android.handheld.nounours.orientation;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class OrientationIndexTest {
+
+    // The orientation images of the nounours themes.
+    private static final List<OrientationImage> THEME_ORIENTATION_IMAGES = Arrays.asList(
+            new OrientationImage("HeadUp", -180, 180, 45, 90, -180, 180),
+            new OrientationImage("HeadLeft1", -180, 180, -30, 30, -75, -45),
+            new OrientationImage("HeadLeft1", -180, 180, -30, 30, -135, -105),
+            new OrientationImage("HeadLeft2", -180, 180, -30, 30, -105, -75),
+            new OrientationImage("HeadRight1", -180, 180, -30, 30, 45, 75),
+            new OrientationImage("HeadRight1", -180, 180, -30, 30, 105, 135),
+            new OrientationImage("HeadRight2", -180, 180, -30, 30, 75, 105));
+
+    @Test
+    public void testFind() {
+        OrientationIndex index = new OrientationIndex(THEME_ORIENTATION_IMAGES);
+        Assert.assertEquals("HeadUp", index.find(10, 60, 0).imageId);
+        Assert.assertEquals("HeadLeft2", index.find(-170, 0, -90.5f).imageId);
+        Assert.assertEquals("HeadRight1", index.find(170, 29.9f, 134.9f).imageId);
+        Assert.assertNull(index.find(0, 0, 0));
+        Assert.assertNull(index.find(0, 30.01f, 90));
+        Assert.assertNull(index.find(0, -90, 180));
+        Assert.assertNull(index.find(Float.NaN, 0, 90));
+    }
+
+    @Test
+    public void testFirstImageWinsOnOverlap() {
+        OrientationIndex index = new OrientationIndex(THEME_ORIENTATION_IMAGES);
+        // -75 is the upper bound of HeadLeft2 and the lower bound of HeadLeft1.
+        Assert.assertEquals("HeadLeft1", index.find(0, 0, -75).imageId);
+        // 105 is the upper bound of HeadRight2, which comes after HeadRight1 (105 to 135).
+        Assert.assertEquals("HeadRight1", index.find(0, 0, 105).imageId);
+    }
+
+    @Test
+    public void testEmpty() {
+        OrientationIndex index = new OrientationIndex(new ArrayList<OrientationImage>());
+        Assert.assertNull(index.find(0, 0, 0));
+    }
+
+    @Test
+    public void testSameResultAsLinearScan() {
+        Random random = new Random(42);
+        // More than 64 images, with fractional and out of range bounds.
+        List<OrientationImage> orientationImages = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            float yaw = random.nextFloat() * 400 - 200;
+            float pitch = random.nextFloat() * 200 - 100;
+            float roll = random.nextFloat() * 400 - 200;
+            orientationImages.add(new OrientationImage("image" + i,
+                    yaw, yaw + random.nextFloat() * 90,
+                    pitch, pitch + random.nextFloat() * 45,
+                    roll, roll + random.nextFloat() * 90));
+        }
+        OrientationIndex index = new OrientationIndex(orientationImages);
+        for (int i = 0; i < 100000; i++) {
+            float yaw = random.nextFloat() * 360 - 180;
+            float pitch = random.nextFloat() * 180 - 90;
+            float roll = random.nextFloat() * 360 - 180;
+            OrientationImage expected = null;
+            for (OrientationImage orientationImage : orientationImages) {
+                if (orientationImage.matches(yaw, pitch, roll)) {
+                    expected = orientationImage;
+                    break;
+                }
+            }
+            Assert.assertSame(expected, index.find(yaw, pitch, roll));
+        }
+    }
+}
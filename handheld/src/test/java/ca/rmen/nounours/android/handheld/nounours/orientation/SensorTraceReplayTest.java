@@ -0,0 +1,153 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.rmen.nounours.android.handheld.nounours.orientation;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import android.preference.PreferenceManager;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Replays sensor traces through the sensor listener, with a fake nounours.
+ * <p/>
+ * To replay a trace recorded on a device, set the SENSOR_TRACE environment variable to the path
+ * of the trace file, and run this test.  The report of that trace is printed.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21)
+public class SensorTraceReplayTest {
+
+    private Context mContext;
+    private FakeNounours mNounours;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        mContext = RuntimeEnvironment.application;
+        mNounours = FakeNounours.create(mContext);
+    }
+
+    @Test
+    public void testTiltAndShake() throws IOException {
+        // The device is tilted to the left from 4 to 9 seconds, and shaken from 12 to 13.6 seconds.
+        SensorTraceReplayer.Report report = replay(getResource("tilt-and-shake.trace"), createSensorListener());
+        Assert.assertEquals(1, report.shakeCount);
+        // A tilt image, then back to the default image.
+        Assert.assertTrue(report.displayedImageIds.toString(), report.displayedImageIds.size() >= 2);
+        Assert.assertEquals(mNounours.getCurrentTheme().getDefaultImage().getId(),
+                report.displayedImageIds.get(report.displayedImageIds.size() - 1));
+    }
+
+    @Test
+    public void testRecordAndReplay() throws IOException {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit().putBoolean("app_RecordSensorTrace", true).commit();
+        SensorManager sensorManager = (SensorManager) mContext.getSystemService(Context.SENSOR_SERVICE);
+        SensorListener sensorListener = createSensorListener();
+        sensorListener.registerSensors(sensorManager);
+        SensorTraceReplayer.Report report = replay(getResource("tilt-and-shake.trace"), sensorListener);
+        sensorListener.unregisterSensors(sensorManager);
+
+        File[] traceFiles = mContext.getExternalFilesDir("sensor-traces").listFiles();
+        Assert.assertNotNull(traceFiles);
+        Assert.assertEquals(1, traceFiles.length);
+        SensorTraceReplayer.Report recordedReport = replay(new FileInputStream(traceFiles[0]), createSensorListener());
+        Assert.assertEquals(report.eventCount, recordedReport.eventCount);
+        Assert.assertEquals(report.shakeCount, recordedReport.shakeCount);
+        Assert.assertEquals(report.displayedImageIds, recordedReport.displayedImageIds);
+    }
+
+    @Test
+    public void testRecordRotationVector() throws IOException {
+        File traceFile = File.createTempFile("sensor-trace", ".trace");
+        SensorTraceRecorder recorder = new SensorTraceRecorder(traceFile);
+        recorder.record(1, Sensor.TYPE_ROTATION_VECTOR, new float[]{0.1f, 0.2f, 0.3f, -0.927f, 0});
+        recorder.record(2, Sensor.TYPE_ROTATION_VECTOR, new float[]{0.1f, 0.2f, 0.3f, 0.927f, 0});
+        recorder.record(3, Sensor.TYPE_ACCELEROMETER, new float[]{0.1f, 0.2f, 0.3f});
+        recorder.stop();
+
+        DataInputStream in = new DataInputStream(new FileInputStream(traceFile));
+        try {
+            Assert.assertEquals(SensorTraceRecorder.MAGIC, in.readInt());
+            Assert.assertEquals(SensorTraceRecorder.VERSION, in.readInt());
+            // The first quaternion is negated: its scalar component is negative.
+            float[][] expectedValues = {{-0.1f, -0.2f, -0.3f}, {0.1f, 0.2f, 0.3f}, {0.1f, 0.2f, 0.3f}};
+            for (int i = 0; i < expectedValues.length; i++) {
+                Assert.assertEquals(i + 1, in.readLong());
+                in.readInt();
+                for (float expectedValue : expectedValues[i]) {
+                    Assert.assertEquals(expectedValue, in.readFloat(), 0);
+                }
+            }
+            Assert.assertEquals(-1, in.read());
+        } finally {
+            in.close();
+            traceFile.delete();
+        }
+    }
+
+    @Test
+    public void testRecordTwice() {
+        SensorTraceRecorder.start(mContext).stop();
+        SensorTraceRecorder.start(mContext).stop();
+        File[] traceFiles = mContext.getExternalFilesDir("sensor-traces").listFiles();
+        Assert.assertNotNull(traceFiles);
+        Assert.assertEquals(2, traceFiles.length);
+    }
+
+    @Test
+    public void testReplayTraceFromEnvironment() throws IOException {
+        String tracePath = System.getenv("SENSOR_TRACE");
+        Assume.assumeNotNull(tracePath);
+        System.out.println(replay(new FileInputStream(tracePath), createSensorListener()));
+    }
+
+    private SensorListener createSensorListener() {
+        SensorListener sensorListener = new SensorListener(mNounours, mContext);
+        // The orientation file is read in an AsyncTask.
+        sensorListener.rereadOrientationFile(mContext);
+        Robolectric.flushBackgroundThreadScheduler();
+        return sensorListener;
+    }
+
+    private SensorTraceReplayer.Report replay(InputStream trace, SensorListener sensorListener) throws IOException {
+        return SensorTraceReplayer.replay(trace, sensorListener, mNounours);
+    }
+
+    private static InputStream getResource(String traceName) {
+        InputStream is = SensorTraceReplayTest.class.getResourceAsStream("/sensor-traces/" + traceName);
+        Assert.assertNotNull(traceName, is);
+        return is;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.rmen.nounours.android.handheld.nounours.orientation;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import ca.rmen.nounours.android.common.test.AllocationCounter;
+
+/**
+ * Replays a trace written by {@link SensorTraceRecorder} through a {@link SensorListener}, as fast
+ * as possible, and reports what nounours did and how long the listener took to process each event.
+ */
+class SensorTraceReplayer {
+
+    static final class Report {
+        int eventCount;
+        List<String> displayedImageIds;
+        int shakeCount;
+        long totalProcessingNanos;
+        long maxProcessingNanos;
+        // Includes what the fake nounours allocates to remember the images.
+        long allocatedBytes;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%d events, %d shakes, images %s%n"
+                            + "processing time per event: average %.1f us, max %.1f us%n"
+                            + "allocated per event: %.1f bytes",
+                    eventCount, shakeCount, displayedImageIds,
+                    eventCount == 0 ? 0 : totalProcessingNanos / 1000f / eventCount,
+                    maxProcessingNanos / 1000f,
+                    eventCount == 0 ? 0 : (float) allocatedBytes / eventCount);
+        }
+    }
+
+    private SensorTraceReplayer() {
+        // prevent instantiation
+    }
+
+    static Report replay(InputStream trace, SensorListener sensorListener, FakeNounours nounours) throws IOException {
+        nounours.clear();
+        Report report = new Report();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(trace));
+        try {
+            if (in.readInt() != SensorTraceRecorder.MAGIC) throw new IOException("Not a sensor trace");
+            int version = in.readInt();
+            if (version != SensorTraceRecorder.VERSION) throw new IOException("Unsupported sensor trace version " + version);
+            float[] values = new float[SensorTraceRecorder.VALUE_COUNT];
+            AllocationCounter allocationCounter = AllocationCounter.start();
+            while (true) {
+                long timestamp;
+                try {
+                    timestamp = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                int sensorType = in.readInt();
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = in.readFloat();
+                }
+                long start = System.nanoTime();
+                sensorListener.onSensorChanged(timestamp, sensorType, values);
+                long processingNanos = System.nanoTime() - start;
+                report.eventCount++;
+                report.totalProcessingNanos += processingNanos;
+                if (processingNanos > report.maxProcessingNanos) report.maxProcessingNanos = processingNanos;
+            }
+            report.allocatedBytes = allocationCounter.getAllocatedBytes();
+        } finally {
+            in.close();
+        }
+        report.displayedImageIds = new ArrayList<>(nounours.displayedImageIds);
+        report.shakeCount = nounours.shakeCount;
+        return report;
+    }
+}
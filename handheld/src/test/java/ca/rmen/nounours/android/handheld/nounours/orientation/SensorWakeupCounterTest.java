@@ -0,0 +1,58 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.rmen.nounours.android.handheld.nounours.orientation;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SensorWakeupCounterTest {
+
+    @Test
+    public void testBatchCountsAsOneWakeup() {
+        SensorWakeupCounter counter = new SensorWakeupCounter();
+        // Two batches of 5 events, delivered half a second apart.
+        for (long batchTime = 1000; batchTime <= 1500; batchTime += 500) {
+            for (int i = 0; i < 5; i++) counter.onEvent(batchTime + i);
+        }
+        Assert.assertEquals(2, counter.getWakeupsPerMinute(2000));
+    }
+
+    @Test
+    public void testWakeupsPerMinute() {
+        SensorWakeupCounter counter = new SensorWakeupCounter();
+        // One event every 200ms during the first minute, then one every 2 seconds.
+        long time = 0;
+        for (; time < 60000; time += 200) counter.onEvent(time);
+        Assert.assertEquals(300, counter.getWakeupsPerMinute(time));
+        for (; time < 120000; time += 2000) counter.onEvent(time);
+        Assert.assertEquals(30, counter.getWakeupsPerMinute(time));
+    }
+
+    @Test
+    public void testNoWakeupsForMoreThanAMinute() {
+        SensorWakeupCounter counter = new SensorWakeupCounter();
+        counter.onEvent(0);
+        counter.onEvent(1000);
+        Assert.assertEquals(2, counter.getWakeupsPerMinute(30000));
+        Assert.assertEquals(0, counter.getWakeupsPerMinute(150000));
+        counter.reset();
+        Assert.assertEquals(0, counter.getWakeupsPerMinute(160000));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.rmen.nounours.android.handheld.nounours.orientation;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replays accelerometer traces, from src/test/resources/sensor-traces, through the shake detector.
+ */
+public class ShakeDetectorTest {
+
+    // The shake.factor of nounours.properties.
+    private static final float SHAKE_THRESHOLD = 8;
+
+    @Test
+    public void testStillDeviceDoesntShake() throws IOException {
+        Assert.assertEquals(0, replay("still.csv").size());
+    }
+
+    @Test
+    public void testGlitchesArentShakes() throws IOException {
+        Assert.assertEquals(0, replay("noisy.csv").size());
+    }
+
+    @Test
+    public void testTiltAndBumpArentShakes() throws IOException {
+        Assert.assertEquals(0, replay("tilt.csv").size());
+    }
+
+    @Test
+    public void testShakes() throws IOException {
+        List<Long> shakes = replay("shake-5hz.csv");
+        Assert.assertEquals(2, shakes.size());
+        // The device is shaken from 10 to 11.6 seconds, and from 20 to 21.6 seconds.
+        Assert.assertTrue(shakes.get(0) >= secondsToTimestamp(10) && shakes.get(0) < secondsToTimestamp(12));
+        Assert.assertTrue(shakes.get(1) >= secondsToTimestamp(20) && shakes.get(1) < secondsToTimestamp(22));
+    }
+
+    @Test
+    public void testLongShakeFiresOncePerRefractoryPeriod() throws IOException {
+        List<Long> shakes = replay("shake-50hz.csv");
+        // The device is shaken from 3 to 6 seconds.
+        Assert.assertEquals(2, shakes.size());
+        Assert.assertTrue(shakes.get(1) - shakes.get(0) >= ShakeDetector.REFRACTORY_PERIOD_NS);
+    }
+
+    @Test
+    public void testReset() {
+        ShakeDetector shakeDetector = new ShakeDetector(SHAKE_THRESHOLD);
+        long timestamp = 0;
+        shakeDetector.onAcceleration(timestamp, 0, 0, 9.81f);
+        timestamp += 200000000L;
+        Assert.assertFalse(shakeDetector.onAcceleration(timestamp, 12, 0, 9.81f));
+        shakeDetector.reset();
+        // The first reading after a reset is only used to estimate gravity.
+        timestamp += 200000000L;
+        Assert.assertFalse(shakeDetector.onAcceleration(timestamp, -12, 0, 9.81f));
+        timestamp += 200000000L;
+        Assert.assertFalse(shakeDetector.onAcceleration(timestamp, 12, 0, 9.81f));
+        timestamp += 200000000L;
+        Assert.assertFalse(shakeDetector.onAcceleration(timestamp, -12, 0, 9.81f));
+        timestamp += 200000000L;
+        Assert.assertTrue(shakeDetector.onAcceleration(timestamp, 12, 0, 9.81f));
+    }
+
+    /**
+     * @return the timestamps of the readings which completed a shake.
+     */
+    private static List<Long> replay(String traceName) throws IOException {
+        InputStream is = ShakeDetectorTest.class.getResourceAsStream("/sensor-traces/" + traceName);
+        Assert.assertNotNull(traceName, is);
+        ShakeDetector shakeDetector = new ShakeDetector(SHAKE_THRESHOLD);
+        List<Long> shakes = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+        try {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] fields = line.split(",");
+                long timestamp = Long.parseLong(fields[0]);
+                if (shakeDetector.onAcceleration(timestamp,
+                        Float.parseFloat(fields[1]),
+                        Float.parseFloat(fields[2]),
+                        Float.parseFloat(fields[3]))) {
+                    shakes.add(timestamp);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return shakes;
+    }
+
+    // The traces start at 1 second.
+    private static long secondsToTimestamp(int seconds) {
+        return (seconds + 1) * 1000000000L;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.external.nbadal;
+
+import android.graphics.Bitmap;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+
+import ca.rmen.nounours.android.common.test.AllocationCounter;
+
+/**
+ * Measures each stage of the gif encoder on the images of a real theme, and prints the time,
+ * output size and memory allocated per frame.  The results are a baseline to compare encoder
+ * changes against: run this test before and after a change, on the same machine.
+ * <p/>
+ * The timings are only printed: they depend too much on the machine to be asserted.  The
+ * benchmarks are excluded from the unit tests: run them with {@code ./gradlew test -Pbenchmark}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21)
+public class AnimatedGifEncoderBenchmarkTest {
+
+    // Unit tests run in the module folder.
+    private static final File THEME_FOLDER = new File("src/nounours/assets/themes/5000");
+    private static final int QUANTIZER_SAMPLE = 10;
+    private static final int WARMUP_PASSES = 2;
+    private static final int MEASURED_PASSES = 5;
+
+    private final List<Bitmap> mFrames = new ArrayList<>();
+    private int mWidth;
+    private int mHeight;
+
+    @Before
+    public void setUp() throws IOException {
+        File[] files = THEME_FOLDER.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".jpg");
+            }
+        });
+        Assert.assertNotNull("No theme in " + THEME_FOLDER.getAbsolutePath(), files);
+        Arrays.sort(files);
+        for (File file : files) {
+            // Robolectric doesn't decode the pixels of images: decode them with the JDK.
+            BufferedImage image = ImageIO.read(file);
+            if (mFrames.isEmpty()) {
+                mWidth = image.getWidth();
+                mHeight = image.getHeight();
+            } else if (image.getWidth() != mWidth || image.getHeight() != mHeight) {
+                continue;
+            }
+            int[] pixels = image.getRGB(0, 0, mWidth, mHeight, null, 0, mWidth);
+            mFrames.add(Bitmap.createBitmap(pixels, mWidth, mHeight, Bitmap.Config.ARGB_8888));
+        }
+        Assert.assertFalse(mFrames.isEmpty());
+    }
+
+    @Test
+    public void benchmarkPixelExtraction() throws IOException {
+        Result result = measure("pixel extraction", mFrames.size(), new Stage() {
+            private int[] mData;
+
+            @Override
+            public long run(int frameIndex) {
+                mData = AnimatedGifEncoder.getImageData(mFrames.get(frameIndex), mData);
+                return mData.length * 4;
+            }
+        });
+        Assert.assertEquals(mWidth * mHeight * 4, result.outputBytesPerRun);
+    }
+
+    @Test
+    public void benchmarkLocalPaletteQuantization() throws IOException {
+        final List<byte[]> bgrFrames = getBgrFrames();
+        Result result = measure("quantization, local palette", mFrames.size(), new Stage() {
+            private NeuQuant mNeuQuant;
+            private byte[] mIndexedPixels;
+
+            @Override
+            public long run(int frameIndex) {
+                byte[] pixels = bgrFrames.get(frameIndex);
+                if (mNeuQuant == null) mNeuQuant = new NeuQuant(pixels, pixels.length, QUANTIZER_SAMPLE);
+                else mNeuQuant.init(pixels, pixels.length, QUANTIZER_SAMPLE);
+                byte[] colorTab = mNeuQuant.process();
+                int pixelCount = pixels.length / 3;
+                mIndexedPixels = AnimatedGifEncoder.ensureCapacity(mIndexedPixels, pixelCount);
+                int k = 0;
+                for (int i = 0; i < pixelCount; i++) {
+                    mIndexedPixels[i] = (byte) mNeuQuant.map(pixels[k++] & 0xff, pixels[k++] & 0xff, pixels[k++] & 0xff);
+                }
+                return colorTab.length + pixelCount;
+            }
+        });
+        Assert.assertTrue(result.outputBytesPerRun > 0);
+    }
+
+    @Test
+    public void benchmarkGlobalPaletteTraining() throws IOException {
+        Result result = measure("global palette training", 1, new Stage() {
+            private final AnimatedGifEncoder.FrameBuffers mFrameBuffers = new AnimatedGifEncoder.FrameBuffers();
+
+            @Override
+            public long run(int frameIndex) {
+                AnimatedGifEncoder encoder = createEncoderWithGlobalPalette(mFrameBuffers);
+                return encoder.paletteLookup.length;
+            }
+        });
+        Assert.assertEquals(1 << 15, result.outputBytesPerRun);
+    }
+
+    @Test
+    public void benchmarkGlobalPaletteQuantization() throws IOException {
+        final AnimatedGifEncoder.FrameBuffers frameBuffers = new AnimatedGifEncoder.FrameBuffers();
+        final AnimatedGifEncoder encoder = createEncoderWithGlobalPalette(frameBuffers);
+        Result result = measure("quantization, global palette", mFrames.size(), new Stage() {
+            private byte[] mIndexedPixels;
+
+            @Override
+            public long run(int frameIndex) {
+                mIndexedPixels = encoder.mapToGlobalPalette(mFrames.get(frameIndex), encoder.paletteLookup, frameBuffers, mIndexedPixels);
+                return mWidth * mHeight;
+            }
+        });
+        Assert.assertEquals(mWidth * mHeight, result.outputBytesPerRun);
+    }
+
+    @Test
+    public void benchmarkLzwCompression() throws IOException {
+        final AnimatedGifEncoder.FrameBuffers frameBuffers = new AnimatedGifEncoder.FrameBuffers();
+        AnimatedGifEncoder encoder = createEncoderWithGlobalPalette(frameBuffers);
+        final List<byte[]> indexedFrames = new ArrayList<>(mFrames.size());
+        for (Bitmap frame : mFrames) {
+            indexedFrames.add(encoder.mapToGlobalPalette(frame, encoder.paletteLookup, frameBuffers, null));
+        }
+        Result result = measure("LZW compression", mFrames.size(), new Stage() {
+            @Override
+            public long run(int frameIndex) throws IOException {
+                return AnimatedGifEncoder.compressPixels(mWidth, mHeight, indexedFrames.get(frameIndex), 8, frameBuffers).length;
+            }
+        });
+        Assert.assertTrue(result.outputBytesPerRun > 0);
+        Assert.assertTrue(result.outputBytesPerRun < mWidth * mHeight);
+    }
+
+    @Test
+    public void benchmarkDeltaFrameEncoding() throws IOException {
+        final AnimatedGifEncoder.FrameBuffers frameBuffers = new AnimatedGifEncoder.FrameBuffers();
+        final AnimatedGifEncoder encoder = createEncoderWithGlobalPalette(frameBuffers);
+        Result result = measure("complete delta frame", mFrames.size(), new Stage() {
+            @Override
+            public long run(int frameIndex) throws IOException {
+                Bitmap previousFrame = frameIndex == 0 ? null : mFrames.get(frameIndex - 1);
+                return encoder.encodeFrame(mFrames.get(frameIndex), previousFrame, frameBuffers).pixelData.length;
+            }
+        });
+        Assert.assertTrue(result.outputBytesPerRun > 0);
+    }
+
+    private AnimatedGifEncoder createEncoderWithGlobalPalette(AnimatedGifEncoder.FrameBuffers frameBuffers) {
+        AnimatedGifEncoder encoder = new AnimatedGifEncoder();
+        encoder.setGlobalPalette(mFrames.size());
+        for (int i = 0; i < mFrames.size(); i++) {
+            encoder.addPaletteSample(mFrames.get(i), i, frameBuffers);
+        }
+        Assert.assertTrue(encoder.buildGlobalPalette());
+        return encoder;
+    }
+
+    /**
+     * @return the pixels of each frame, in the BGR order the quantizer expects.
+     */
+    private List<byte[]> getBgrFrames() {
+        List<byte[]> bgrFrames = new ArrayList<>(mFrames.size());
+        int[] data = null;
+        for (Bitmap frame : mFrames) {
+            data = AnimatedGifEncoder.getImageData(frame, data);
+            byte[] pixels = new byte[mWidth * mHeight * 3];
+            int k = 0;
+            for (int i = 0; i < mWidth * mHeight; i++) {
+                int color = data[i];
+                pixels[k++] = (byte) (color & 0xff);
+                pixels[k++] = (byte) ((color >> 8) & 0xff);
+                pixels[k++] = (byte) ((color >> 16) & 0xff);
+            }
+            bgrFrames.add(pixels);
+        }
+        return bgrFrames;
+    }
+
+    /**
+     * Run the stage on all the frames a few times to warm up the JIT, then measure it.
+     *
+     * @param runsPerPass the number of times the stage is run in a pass over the theme.
+     */
+    private static Result measure(String stageName, int runsPerPass, Stage stage) throws IOException {
+        for (int pass = 0; pass < WARMUP_PASSES; pass++) {
+            for (int i = 0; i < runsPerPass; i++) stage.run(i);
+        }
+
+        long outputBytes = 0;
+        AllocationCounter allocationCounter = AllocationCounter.start();
+        long startTime = System.nanoTime();
+        for (int pass = 0; pass < MEASURED_PASSES; pass++) {
+            for (int i = 0; i < runsPerPass; i++) outputBytes += stage.run(i);
+        }
+        long duration = System.nanoTime() - startTime;
+        long allocatedBytes = allocationCounter.getAllocatedBytes();
+
+        int runCount = MEASURED_PASSES * runsPerPass;
+        Result result = new Result(duration / 1000000f / runCount, outputBytes / runCount, allocatedBytes / runCount);
+        if (Boolean.getBoolean("benchmark")) {
+            System.out.println(String.format(Locale.US, "%-30s %9.3f ms/run %9d bytes/run %11d bytes allocated/run",
+                    stageName, result.msPerRun, result.outputBytesPerRun, result.allocatedBytesPerRun));
+        }
+        return result;
+    }
+
+    private interface Stage {
+        /**
+         * @return the number of bytes produced by this run.
+         */
+        long run(int frameIndex) throws IOException;
+    }
+
+    private static class Result {
+        private final float msPerRun;
+        private final long outputBytesPerRun;
+        private final long allocatedBytesPerRun;
+
+        Result(float msPerRun, long outputBytesPerRun, long allocatedBytesPerRun) {
+            this.msPerRun = msPerRun;
+            this.outputBytesPerRun = outputBytesPerRun;
+            this.allocatedBytesPerRun = allocatedBytesPerRun;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+#!/usr/bin/env python3
+"""
+Generates the synthetic sensor traces of this directory.
+
+The random generators are seeded, so running this script from this directory
+reproduces the committed traces exactly.
+"""
+import math
+import random
+import struct
+
+G = 9.81
+
+
+def write(name, comment, samples):
+    with open(name, 'w') as f:
+        f.write("# %s\n# timestamp (ns),x,y,z (m/s^2)\n" % comment)
+        for t, x, y, z in samples:
+            f.write("%d,%.3f,%.3f,%.3f\n" % (t, x, y, z))
+
+
+def timestamp(i, hz):
+    return 1000000000 + i * (1000000000 // hz)
+
+
+def write_trace(name, records):
+    """
+    Writes records in the binary format of SensorTraceRecorder: a header
+    with the magic number and the version, then one record per sensor event.
+    """
+    with open(name, 'wb') as f:
+        f.write(struct.pack('>ii', 0x4e4e5354, 1))
+        for record in records:
+            f.write(struct.pack('>qi3f', *record))
+
+
+def still():
+    r = random.Random(1)
+    return [(timestamp(i, 5), r.gauss(0, 0.05), r.gauss(0, 0.05), G + r.gauss(0, 0.05))
+            for i in range(150)]
+
+
+def noisy():
+    r = random.Random(2)
+    samples = []
+    for i in range(150):
+        x, y, z = r.gauss(0, 0.6), r.gauss(0, 0.6), G + r.gauss(0, 0.6)
+        # A glitch every 3 seconds
+        if i % 15 == 7:
+            x += 10
+        samples.append((timestamp(i, 5), x, y, z))
+    return samples
+
+
+def shake_5hz():
+    r = random.Random(3)
+    samples = []
+    for i in range(150):
+        t = i / 5.0
+        x, y, z = r.gauss(0, 0.1), r.gauss(0, 0.1), G + r.gauss(0, 0.1)
+        if 10 <= t < 11.6 or 20 <= t < 21.6:
+            x += 12 * math.sin(2 * math.pi * 2.3 * t)
+            y += 4 * math.sin(2 * math.pi * 2.3 * t + 1)
+        samples.append((timestamp(i, 5), x, y, z))
+    return samples
+
+
+def shake_50hz():
+    r = random.Random(4)
+    samples = []
+    for i in range(500):
+        t = i / 50.0
+        x, y, z = r.gauss(0, 0.1), r.gauss(0, 0.1), G + r.gauss(0, 0.1)
+        if 3 <= t < 6:
+            x += 15 * math.sin(2 * math.pi * 3 * t)
+        samples.append((timestamp(i, 50), x, y, z))
+    return samples
+
+
+def tilt():
+    r = random.Random(5)
+    samples = []
+    for i in range(100):
+        t = i / 5.0
+        a = 0 if t < 5 else min(1, (t - 5) / 3) * math.pi / 2
+        x, y, z = r.gauss(0, 0.1), G * math.sin(a) + r.gauss(0, 0.1), G * math.cos(a) + r.gauss(0, 0.1)
+        # Put down on the table
+        if i == 80:
+            y += 10
+        samples.append((timestamp(i, 5), x, y, z))
+    return samples
+
+
+def tilt_and_shake():
+    """
+    Accelerometer (type 1) and rotation vector (type 15) events, at 5 Hz each:
+    the device is rolled onto its side and back, then shaken.
+    """
+    r = random.Random(6)
+
+    def roll_at(t):
+        if t < 4:
+            return 0
+        if t < 5:
+            return -90 * (t - 4)
+        if t < 8:
+            return -90
+        if t < 9:
+            return -90 * (9 - t)
+        return 0
+
+    records = []
+    for i in range(80):
+        t = i / 5.0
+        theta = math.radians(roll_at(t))
+        ax, ay, az = -math.sin(theta) * G + r.gauss(0, 0.1), r.gauss(0, 0.1), math.cos(theta) * G + r.gauss(0, 0.1)
+        if 12 <= t < 13.6:
+            ax += 12 * math.sin(2 * math.pi * 2.3 * t)
+            ay += 4 * math.sin(2 * math.pi * 2.3 * t + 1)
+        records.append((1000000000 + int(t * 1e9), 1, ax, ay, az))
+        t += 0.1
+        theta = math.radians(roll_at(t))
+        records.append((1000000000 + int(round(t * 1e9)), 15, 0.0, math.sin(theta / 2), 0.0))
+    return records
+
+
+if __name__ == '__main__':
+    write('still.csv', 'Device lying on a table, accelerometer at 5 Hz.', still())
+    write('noisy.csv', 'Noisy accelerometer at 5 Hz, with a one-sample glitch every 3 seconds.', noisy())
+    write('shake-5hz.csv', 'Device shaken twice, for 1.6 seconds, 10 seconds apart, accelerometer at 5 Hz.', shake_5hz())
+    write('shake-50hz.csv', 'Device shaken for 3 seconds, accelerometer at 50 Hz.', shake_50hz())
+    write('tilt.csv', 'Device picked up and tilted upright over 3 seconds, then put down with a bump, '
+                      'accelerometer at 5 Hz.', tilt())
+    write_trace('tilt-and-shake.trace', tilt_and_shake())
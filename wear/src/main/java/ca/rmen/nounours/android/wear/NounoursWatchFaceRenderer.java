@@ -29,8 +29,7 @@ import android.graphics.drawable.BitmapDrawable;
 import android.support.annotation.VisibleForTesting;
 import android.util.TypedValue;
 
-import java.util.Calendar;
-import java.util.Locale;
+import java.util.TimeZone;
 
 import ca.rmen.nounours.android.common.compat.ResourcesCompat;
 import ca.rmen.nounours.android.common.nounours.NounoursRenderer;
@@ -38,27 +37,55 @@ import ca.rmen.nounours.android.common.settings.NounoursSettings;
 
 /**
  * Renders nounours both in normal and ambient modes.
+ * <p/>
+ * Nothing is allocated while rendering a frame: the objects needed for drawing are created once,
+ * and the layout of the dial numbers is only computed when the size or shape of the view changes.
+ * <p/>
+ * The watch face draws from its onDraw() and from the render thread of nounours: the display mode
+ * and the objects reused to draw in ambient mode are guarded by {@link #mAmbientLock}.
  */
 class NounoursWatchFaceRenderer extends NounoursRenderer {
 
     private static final int DIAL_NUMBER_TEXT_SIZE_SP = 18;
+    private static final int DIAL_NUMBER_COUNT = 12;
+    private static final long MILLIS_PER_MINUTE = 60 * 1000;
+    private static final long MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
 
+    private final Object mAmbientLock = new Object();
     private boolean mIsRound;
     private boolean mIsAmbient;
     private boolean mIsLowBitAmbient;
     private final Paint mBackgroundPaint;
     private final Bitmap mAmbientBitmap;
     private final Bitmap mLowBitAmbientBitmap;
-    private final int mDialNumberColor;
-    private final float mDialNumberTextSize;
+    private final Paint mDialNumberPaint;
+    private final String[] mDialNumberLabels = new String[DIAL_NUMBER_COUNT];
+    private final float[] mDialNumberX = new float[DIAL_NUMBER_COUNT];
+    private final float[] mDialNumberY = new float[DIAL_NUMBER_COUNT];
+    // The view for which we computed the positions of the dial numbers.
+    private int mDialLayoutWidth;
+    private int mDialLayoutHeight;
+    private boolean mDialLayoutIsRound;
+    private final Matrix mAmbientMatrix = new Matrix();
+    // The local time, in minutes, and the view for which we computed the ambient matrix.
+    private long mAmbientMatrixMinute = -1;
+    private int mAmbientMatrixWidth;
+    private int mAmbientMatrixHeight;
+    private final Rect mNounoursDisplayViewRect = new Rect();
+    private final Rect mBitmapRect = new Rect();
+    private TimeZone mTimeZone = TimeZone.getDefault();
 
     public NounoursWatchFaceRenderer(Context context, NounoursSettings settings) {
         mBackgroundPaint = new Paint();
         mBackgroundPaint.setColor(settings.getBackgroundColor());
         mAmbientBitmap = getBitmap(context, "ambient_" + settings.getThemeId());
         mLowBitAmbientBitmap = getBitmap(context, "low_bit_ambient_" + settings.getThemeId());
-        mDialNumberColor = ResourcesCompat.getColor(context, android.R.color.white);
-        mDialNumberTextSize = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, DIAL_NUMBER_TEXT_SIZE_SP, context.getResources().getDisplayMetrics());
+        mDialNumberPaint = new Paint();
+        mDialNumberPaint.setColor(ResourcesCompat.getColor(context, android.R.color.white));
+        mDialNumberPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, DIAL_NUMBER_TEXT_SIZE_SP, context.getResources().getDisplayMetrics()));
+        for (int i = 0; i < DIAL_NUMBER_COUNT; i++) {
+            mDialNumberLabels[i] = String.valueOf(i + 1);
+        }
     }
 
     private Bitmap getBitmap(Context context, String identifier) {
@@ -70,21 +97,43 @@ class NounoursWatchFaceRenderer extends NounoursRenderer {
     }
 
     public void setIsRound(boolean isRound) {
-        mIsRound = isRound;
+        synchronized (mAmbientLock) {
+            mIsRound = isRound;
+        }
     }
 
     public void setIsAmbient(boolean isAmbient) {
-        mIsAmbient = isAmbient;
+        synchronized (mAmbientLock) {
+            mIsAmbient = isAmbient;
+            // The time zone may have changed since we last were in ambient mode.
+            if (isAmbient) mTimeZone = TimeZone.getDefault();
+        }
     }
 
     public void setIsLowBitAmbient(boolean isLowBitAmbient) {
-        mIsLowBitAmbient = isLowBitAmbient;
+        synchronized (mAmbientLock) {
+            mIsLowBitAmbient = isLowBitAmbient;
+        }
+    }
+
+    /**
+     * The watch face also draws nounours in onDraw(), so we can't rely on the previous frame
+     * drawn by this renderer still being on the screen.
+     */
+    @Override
+    protected boolean canRedrawPartially() {
+        return false;
     }
 
     @Override
     public void render(NounoursSettings settings, Bitmap bitmap, Canvas canvas, int viewWidth, int viewHeight) {
-        if (mIsAmbient) renderAmbientNounours((WearSettings) settings, canvas, viewWidth, viewHeight);
-        else super.render(settings, bitmap, canvas, viewWidth, viewHeight);
+        synchronized (mAmbientLock) {
+            if (mIsAmbient) {
+                renderAmbientNounours((WearSettings) settings, canvas, viewWidth, viewHeight);
+                return;
+            }
+        }
+        super.render(settings, bitmap, canvas, viewWidth, viewHeight);
     }
 
     private void renderAmbientNounours(WearSettings settings, Canvas c, int viewWidth, int viewHeight) {
@@ -107,26 +156,37 @@ class NounoursWatchFaceRenderer extends NounoursRenderer {
             }
 
             // Draw nounours in a square which is 1/3 the square view width
-            Rect nounoursDisplayViewRect = new Rect(squareViewWidth/ 3, squareViewWidth/ 3, 2 * squareViewWidth/ 3, 2 * squareViewWidth/ 3);
-
-            // Rotate nounours around himself according to the minutes of the current time.
-            Calendar now = Calendar.getInstance(Locale.getDefault());
-            float minutesRotation = 360 * now.get(Calendar.MINUTE) / 60f;
-
-            // Place nounours somewhere around the edge of the watch, according to the hour of the current time.
-            // timeInHours: ex: 8:30am and 8:30pm would both be 0.708333
-            float timeInHours = now.get(Calendar.HOUR) + (float) now.get(Calendar.MINUTE)/60;
-            float hoursRotation = 90 - (360 * timeInHours / 12);
-            float offsetHoursX = (float) Math.cos(Math.toRadians(hoursRotation)) * squareViewWidth / 3;
-            float offsetHoursY = -(float) Math.sin(Math.toRadians(hoursRotation)) * squareViewWidth / 3;
-            Matrix m = new Matrix();
-            m.postRotate(minutesRotation, squareViewWidth/ 2f, squareViewWidth/ 2f);
-            m.postTranslate(offsetX, offsetY);
-            m.postTranslate(offsetHoursX, offsetHoursY);
-            c.setMatrix(m);
-
-            Rect bitmapRect = new Rect(0, 0, bitmap.getWidth(), bitmap.getHeight());
-            c.drawBitmap(bitmap, bitmapRect, nounoursDisplayViewRect, null);
+            mNounoursDisplayViewRect.set(squareViewWidth/ 3, squareViewWidth/ 3, 2 * squareViewWidth/ 3, 2 * squareViewWidth/ 3);
+
+            // We compute the local time ourselves, as a Calendar would allocate objects.
+            long now = getCurrentTimeMillis();
+            long localTime = now + mTimeZone.getOffset(now);
+            long localMinute = localTime / MILLIS_PER_MINUTE;
+            // Nounours only moves once a minute: reuse the matrix of the previous frame until then.
+            if (localMinute != mAmbientMatrixMinute || viewWidth != mAmbientMatrixWidth || viewHeight != mAmbientMatrixHeight) {
+                // Rotate nounours around himself according to the minutes of the current time.
+                int minutes = (int) (localMinute % 60);
+                int hours = (int) ((localTime / MILLIS_PER_HOUR) % 12);
+                float minutesRotation = 360 * minutes / 60f;
+
+                // Place nounours somewhere around the edge of the watch, according to the hour of the current time.
+                // timeInHours: ex: 8:30am and 8:30pm would both be 0.708333
+                float timeInHours = hours + (float) minutes/60;
+                float hoursRotation = 90 - (360 * timeInHours / 12);
+                float offsetHoursX = (float) Math.cos(Math.toRadians(hoursRotation)) * squareViewWidth / 3;
+                float offsetHoursY = -(float) Math.sin(Math.toRadians(hoursRotation)) * squareViewWidth / 3;
+                mAmbientMatrix.reset();
+                mAmbientMatrix.postRotate(minutesRotation, squareViewWidth/ 2f, squareViewWidth/ 2f);
+                mAmbientMatrix.postTranslate(offsetX, offsetY);
+                mAmbientMatrix.postTranslate(offsetHoursX, offsetHoursY);
+                mAmbientMatrixMinute = localMinute;
+                mAmbientMatrixWidth = viewWidth;
+                mAmbientMatrixHeight = viewHeight;
+            }
+            c.setMatrix(mAmbientMatrix);
+
+            mBitmapRect.set(0, 0, bitmap.getWidth(), bitmap.getHeight());
+            c.drawBitmap(bitmap, mBitmapRect, mNounoursDisplayViewRect, null);
             c.setMatrix(null);
             if (!settings.isDigitalTimeEnabled()) {
                 renderDialNumbers(c, viewWidth, viewHeight);
@@ -134,25 +194,41 @@ class NounoursWatchFaceRenderer extends NounoursRenderer {
         }
     }
 
+    @VisibleForTesting
+    long getCurrentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
     private void renderDialNumbers(Canvas c, int viewWidth, int viewHeight) {
+        if (viewWidth != mDialLayoutWidth || viewHeight != mDialLayoutHeight || mIsRound != mDialLayoutIsRound) {
+            layoutDialNumbers(viewWidth, viewHeight);
+        }
+        for (int i = 0; i < DIAL_NUMBER_COUNT; i++) {
+            c.drawText(mDialNumberLabels[i], mDialNumberX[i], mDialNumberY[i], mDialNumberPaint);
+        }
+    }
+
+    /**
+     * Compute where to draw the text of each dial number, for the given view.
+     */
+    private void layoutDialNumbers(int viewWidth, int viewHeight) {
         Rect textBounds = new Rect();
-        Paint paint = new Paint();
-        paint.setTextSize(mDialNumberTextSize);
-        for (int dialNumber = 1; dialNumber <= 12; dialNumber++) {
-            String dialNumberLabel = String.valueOf(dialNumber);
-            paint.getTextBounds(dialNumberLabel, 0, dialNumberLabel.length(), textBounds);
-            float altTextWidth = paint.measureText(dialNumberLabel);
+        for (int i = 0; i < DIAL_NUMBER_COUNT; i++) {
+            int dialNumber = i + 1;
+            String dialNumberLabel = mDialNumberLabels[i];
+            mDialNumberPaint.getTextBounds(dialNumberLabel, 0, dialNumberLabel.length(), textBounds);
+            float altTextWidth = mDialNumberPaint.measureText(dialNumberLabel);
             int textHeight = textBounds.height();
             int textWidth = (int) Math.max(textBounds.width(), altTextWidth);
             Point dialNumberPosition = mIsRound ?
                     getDialNumberPositionInCircle(dialNumber, viewWidth, textWidth, textHeight) :
                     getDialNumberPositionInRect(dialNumber, viewWidth, viewHeight, textWidth, textHeight);
-            paint.setColor(mDialNumberColor);
-            c.drawText(dialNumberLabel,
-                    dialNumberPosition.x - textWidth / 2f,
-                    dialNumberPosition.y + textHeight / 2f,
-                    paint);
+            mDialNumberX[i] = dialNumberPosition.x - textWidth / 2f;
+            mDialNumberY[i] = dialNumberPosition.y + textHeight / 2f;
         }
+        mDialLayoutWidth = viewWidth;
+        mDialLayoutHeight = viewHeight;
+        mDialLayoutIsRound = mIsRound;
     }
 
     /**
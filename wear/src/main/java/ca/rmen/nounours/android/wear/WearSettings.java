@@ -26,14 +26,14 @@ import ca.rmen.nounours.android.common.settings.NounoursSettings;
 
 class WearSettings implements NounoursSettings {
     private static final String PREF_SHOW_DIGITAL_TIME = "SHOW_DIGITAL_TIME";
-    private final String mPreferencePrefix;
+    private final String mShowDigitalTimeKey;
     private final String mThemeId;
     private int mBackgroundColor;
     private final SharedPreferences mPrefs;
 
     public WearSettings(Context context, String themeId) {
         mThemeId = themeId;
-        mPreferencePrefix = "PREF_" + mThemeId + "_";
+        mShowDigitalTimeKey = "PREF_" + mThemeId + "_" + PREF_SHOW_DIGITAL_TIME;
         mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
     }
 
@@ -76,7 +76,7 @@ class WearSettings implements NounoursSettings {
     }
 
     public boolean isDigitalTimeEnabled() {
-        return mPrefs.getBoolean(mPreferencePrefix + PREF_SHOW_DIGITAL_TIME, true);
+        return mPrefs.getBoolean(mShowDigitalTimeKey, true);
     }
 
 }
@@ -0,0 +1,151 @@
+/*
+ *   Copyright (c) 2026 Carmen Alvarez
+ *
+ *   This file is part of Nounours for Android.
+ *
+ *   Nounours for Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Nounours for Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Nounours for Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.rmen.nounours.android.wear;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.preference.PreferenceManager;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import ca.rmen.nounours.android.common.test.AllocationCounter;
+
+/**
+ * Renders frames in a loop, in normal and ambient modes, and checks that no memory is allocated
+ * once the renderer is warmed up.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21)
+public class NounoursWatchFaceRendererAllocationTest {
+
+    private static final int VIEW_SIZE = 320;
+    private static final int WARMUP_FRAMES = 10000;
+    private static final int MEASURED_FRAMES = 10000;
+    // Nounours moves every minute in ambient mode: keep the time still, so he only moves once, in the warmup.
+    private static final long CURRENT_TIME_MILLIS = 1500000000000L;
+
+    @Test
+    public void testRenderDoesNotAllocate() {
+        testRenderDoesNotAllocateImpl(false, false);
+    }
+
+    @Test
+    public void testRenderAmbientRoundDoesNotAllocate() {
+        testRenderDoesNotAllocateImpl(true, true);
+    }
+
+    @Test
+    public void testRenderAmbientSquareDoesNotAllocate() {
+        testRenderDoesNotAllocateImpl(true, false);
+    }
+
+    private void testRenderDoesNotAllocateImpl(boolean isAmbient, boolean isRound) {
+        Context context = RuntimeEnvironment.application;
+        WearSettings settings = new WearSettings(context, getThemeId(context));
+        // Draw the dial numbers in ambient mode.
+        PreferenceManager.getDefaultSharedPreferences(context)
+                .edit().putBoolean("PREF_" + settings.getThemeId() + "_SHOW_DIGITAL_TIME", false).commit();
+        NounoursWatchFaceRenderer renderer = new NounoursWatchFaceRenderer(context, settings) {
+            @Override
+            long getCurrentTimeMillis() {
+                return CURRENT_TIME_MILLIS;
+            }
+        };
+        renderer.setIsAmbient(isAmbient);
+        renderer.setIsRound(isRound);
+        Canvas canvas = new NoOpCanvas();
+        Bitmap[] bitmaps = new Bitmap[3];
+        for (int i = 0; i < bitmaps.length; i++) {
+            bitmaps[i] = Bitmap.createBitmap(320, 480, Bitmap.Config.ARGB_8888);
+        }
+
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            renderer.render(settings, bitmaps[i % bitmaps.length], canvas, VIEW_SIZE, VIEW_SIZE);
+        }
+
+        AllocationCounter allocationCounter = AllocationCounter.start();
+        for (int i = 0; i < MEASURED_FRAMES; i++) {
+            renderer.render(settings, bitmaps[i % bitmaps.length], canvas, VIEW_SIZE, VIEW_SIZE);
+        }
+        long allocatedBytes = allocationCounter.getAllocatedBytes();
+        Assert.assertEquals("Bytes allocated in " + MEASURED_FRAMES + " frames", 0, allocatedBytes);
+    }
+
+    /**
+     * @return the theme of the flavor being tested, which has the ambient images.
+     */
+    private static String getThemeId(Context context) {
+        if (context.getResources().getIdentifier("ambient_5001", "drawable", context.getPackageName()) != 0) {
+            return "5001";
+        }
+        return "5004";
+    }
+
+    /**
+     * Doesn't draw anything, so that we only measure the allocations of the renderer.
+     */
+    private static class NoOpCanvas extends Canvas {
+        @Override
+        public void drawColor(int color) {
+        }
+
+        @Override
+        public void drawRect(float left, float top, float right, float bottom, Paint paint) {
+        }
+
+        @Override
+        public void drawBitmap(Bitmap bitmap, float left, float top, Paint paint) {
+        }
+
+        @Override
+        public void drawBitmap(Bitmap bitmap, Rect src, Rect dst, Paint paint) {
+        }
+
+        @Override
+        public void drawText(String text, float x, float y, Paint paint) {
+        }
+
+        @Override
+        public void setMatrix(Matrix matrix) {
+        }
+
+        @Override
+        public void concat(Matrix matrix) {
+        }
+
+        @Override
+        public int save() {
+            return 1;
+        }
+
+        @Override
+        public void restore() {
+        }
+    }
+}